@@ -0,0 +1,48 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Movable view over {@link DAO} records in <b>ascending</b> key order.
+ * Buffers returned by {@link #key()} and {@link #value()} are reused by the cursor and stay valid
+ * only until the next move, so scan loops don't allocate anything per record.
+ * Copy the contents to keep them and never modify them.
+ */
+public interface Cursor extends Closeable {
+
+    /**
+     * Positions cursor at the first record with key not less than given one.
+     */
+    void seek(@NotNull ByteBuffer key) throws IOException;
+
+    /**
+     * Moves cursor to the next record.
+     */
+    void next() throws IOException;
+
+    /**
+     * Checks whether cursor points to a record.
+     */
+    boolean isValid();
+
+    /**
+     * Key of the current record.
+     */
+    @NotNull
+    ByteBuffer key();
+
+    /**
+     * Value of the current record.
+     */
+    @NotNull
+    ByteBuffer value() throws IOException;
+
+    @Override
+    default void close() throws IOException {
+        // Nothing to release
+    }
+}
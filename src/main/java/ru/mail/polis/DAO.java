@@ -16,14 +16,24 @@
 
 package ru.mail.polis;
 
+import com.google.common.collect.Iterators;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Storage interface.
@@ -64,6 +74,73 @@ public interface DAO extends Closeable {
         return Iters.until(iterator(from), bound);
     }
 
+    /**
+     * Provides stream over {@link Record}s from {@link #range(ByteBuffer, ByteBuffer)}.
+     * Implementations may split the range for parallel streams, close the stream if it is not exhausted.
+     */
+    @NotNull
+    default Stream<Record> stream(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to,
+            boolean parallel) throws IOException {
+        final int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(range(from, to), characteristics), parallel);
+    }
+
+    /**
+     * Provides iterator (possibly empty) over keys of {@link Record}s
+     * from {@link #range(ByteBuffer, ByteBuffer)}, implementations may skip reading values.
+     */
+    @NotNull
+    default Iterator<ByteBuffer> keys(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        return Iterators.transform(range(from, to), Record::getKey);
+    }
+
+    /**
+     * Counts {@link Record}s from {@link #range(ByteBuffer, ByteBuffer)}.
+     */
+    default long count(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        return Iterators.size(keys(from, to));
+    }
+
+    /**
+     * Estimates number of {@link Record}s from {@link #range(ByteBuffer, ByteBuffer)}.
+     * Implementations may answer from metadata, counting removed and overwritten records too.
+     */
+    default long estimateCount(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        return count(from, to);
+    }
+
+    /**
+     * Estimates total size in bytes of {@link Record}s from {@link #range(ByteBuffer, ByteBuffer)}.
+     * Implementations may answer from metadata, counting removed and overwritten records too.
+     */
+    default long estimateSize(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        long size = 0L;
+        final Iterator<Record> records = range(from, to);
+        while (records.hasNext()) {
+            final Record record = records.next();
+            size += record.getKey().remaining() + record.getValue().remaining();
+        }
+        return size;
+    }
+
+    /**
+     * Provides unpositioned {@link Cursor} over {@link Record}s, call {@link Cursor#seek(ByteBuffer)} first.
+     */
+    @NotNull
+    default Cursor cursor() throws IOException {
+        return new IteratorCursor(this);
+    }
+
     /**
      * Obtains {@link Record} corresponding to given key.
      *
@@ -84,6 +161,22 @@ public interface DAO extends Closeable {
         }
     }
 
+    /**
+     * Obtains values of given keys at once, keys without {@link Record}s are left out of the result.
+     */
+    @NotNull
+    default Map<ByteBuffer, ByteBuffer> getAll(@NotNull Collection<ByteBuffer> keys) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> result = new HashMap<>();
+        for (final ByteBuffer key : keys) {
+            try {
+                result.put(key, get(key));
+            } catch (NoSuchElementException e) {
+                // Left out
+            }
+        }
+        return result;
+    }
+
     /**
      * Inserts or updates value by given key.
      */
@@ -96,6 +189,61 @@ public interface DAO extends Closeable {
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
 
+    /**
+     * Obtains value like {@link #get(ByteBuffer)} without blocking the caller on disk,
+     * the future fails with {@link NoSuchElementException} if no such record.
+     * Implementations without native support complete it inline.
+     */
+    @NotNull
+    default CompletableFuture<ByteBuffer> getAsync(@NotNull ByteBuffer key) {
+        try {
+            return CompletableFuture.completedFuture(get(key));
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Inserts or updates value like {@link #upsert(ByteBuffer, ByteBuffer)} without blocking the caller.
+     * Implementations without native support complete it inline.
+     */
+    @NotNull
+    default CompletableFuture<Void> upsertAsync(
+            @NotNull ByteBuffer key,
+            @NotNull ByteBuffer value) {
+        try {
+            upsert(key, value);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Removes value like {@link #remove(ByteBuffer)} without blocking the caller.
+     * Implementations without native support complete it inline.
+     */
+    @NotNull
+    default CompletableFuture<Void> removeAsync(@NotNull ByteBuffer key) {
+        try {
+            remove(key);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Publishes {@link Record}s from {@link #range(ByteBuffer, ByteBuffer)} as far as subscribers request them.
+     * Implementations without native support read them in the thread requesting them.
+     */
+    @NotNull
+    default Flow.Publisher<Record> rangeAsync(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) {
+        return new RecordPublisher(() -> stream(from, to, false), Runnable::run);
+    }
+
     /**
      * Perform compaction
      */
@@ -17,6 +17,8 @@
 package ru.mail.polis;
 
 import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.re1nex.Config;
+import ru.mail.polis.re1nex.KeyOrder;
 import ru.mail.polis.re1nex.NewDAO;
 
 import java.io.File;
@@ -53,6 +55,11 @@ public final class DAOFactory {
         if (!data.isDirectory()) {
             throw new IllegalArgumentException("Path is not a directory: " + data);
         }
-        return new NewDAO(data, MAX_HEAP / 32);
+        // DAO contract orders keys like Record#compareTo, i.e. ByteBuffer#compareTo
+        final Config config = Config.builder()
+                .keyOrder(KeyOrder.SIGNED)
+                .rowCacheBytes(MAX_HEAP / 32)
+                .build();
+        return new NewDAO(data, MAX_HEAP / 32, config);
     }
 }
@@ -0,0 +1,51 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * {@link Cursor} on top of {@link DAO#iterator(ByteBuffer)} for implementations without native one.
+ */
+final class IteratorCursor implements Cursor {
+    private final DAO dao;
+
+    private Iterator<Record> iter = Iters.empty();
+    private Record current;
+
+    IteratorCursor(@NotNull final DAO dao) {
+        this.dao = dao;
+    }
+
+    @Override
+    public void seek(@NotNull final ByteBuffer key) throws IOException {
+        iter = dao.iterator(key);
+        next();
+    }
+
+    @Override
+    public void next() {
+        current = iter.hasNext() ? iter.next() : null;
+    }
+
+    @Override
+    public boolean isValid() {
+        return current != null;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer key() {
+        assert isValid();
+        return current.getKey();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer value() {
+        assert isValid();
+        return current.getValue();
+    }
+}
@@ -0,0 +1,183 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Load generator for {@link Server}. Each connection writes batches of random records and reads them back,
+ * keeping a number of batch requests in flight.
+ */
+public final class LoadClient {
+    private static final Logger log = LoggerFactory.getLogger(LoadClient.class);
+    private static final int KEY_SIZE = 16;
+
+    private LoadClient() {
+        // Not instantiable
+    }
+
+    /**
+     * Loads server on localhost.
+     * Arguments: port, connections, batches per connection, records per batch, pipelining depth, value size.
+     */
+    public static void main(final String[] args) throws IOException {
+        final int port = arg(args, 0, 8080);
+        final long start = System.nanoTime();
+        final long ops = run(
+                new InetSocketAddress("localhost", port),
+                arg(args, 1, 4),
+                arg(args, 2, 1000),
+                arg(args, 3, 100),
+                arg(args, 4, 16),
+                arg(args, 5, 100));
+        final long nanos = System.nanoTime() - start;
+        log.info("{} ops in {} ms, {} ops/s", ops, nanos / 1_000_000L, ops * 1_000_000_000L / Math.max(1L, nanos));
+    }
+
+    private static int arg(
+            @NotNull final String[] args,
+            final int index,
+            final int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    /**
+     * Runs load and checks that every record is read back.
+     *
+     * @param connections - number of connections, each driven by its own thread
+     * @param batches     - number of batches each connection puts and gets
+     * @param batchSize   - records per batch request
+     * @param depth       - max batch requests sent before reading responses
+     * @param valueSize   - size of values
+     * @return number of records put and got
+     */
+    static long run(
+            @NotNull final InetSocketAddress address,
+            final int connections,
+            final int batches,
+            final int batchSize,
+            final int depth,
+            final int valueSize) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(connections);
+        try {
+            final List<Future<Long>> futures = new ArrayList<>(connections);
+            for (int i = 0; i < connections; i++) {
+                final Callable<Long> task = () -> load(address, batches, batchSize, depth, valueSize);
+                futures.add(executor.submit(task));
+            }
+            long ops = 0L;
+            for (final Future<Long> future : futures) {
+                ops += future.get();
+            }
+            return ops;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Load failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long load(
+            @NotNull final InetSocketAddress address,
+            final int batches,
+            final int batchSize,
+            final int depth,
+            final int valueSize) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            long ops = 0L;
+            for (int done = 0; done < batches; done += depth) {
+                final int inFlight = Math.min(depth, batches - done);
+                final List<List<Record>> sent = new ArrayList<>(inFlight);
+                for (int i = 0; i < inFlight; i++) {
+                    final List<Record> batch = randomBatch(batchSize, valueSize);
+                    sent.add(batch);
+                    write(channel, Protocol.putRequest(batch));
+                }
+                for (int i = 0; i < inFlight; i++) {
+                    expectOk(Protocol.readFrame(channel));
+                }
+                for (final List<Record> batch : sent) {
+                    final List<ByteBuffer> keys = new ArrayList<>(batch.size());
+                    for (final Record record : batch) {
+                        keys.add(record.getKey());
+                    }
+                    write(channel, Protocol.getRequest(keys));
+                }
+                for (final List<Record> batch : sent) {
+                    final ByteBuffer response = Protocol.readFrame(channel);
+                    expectOk(response);
+                    if (response.getInt() != batch.size()) {
+                        throw new ProtocolException("Wrong number of values");
+                    }
+                    for (final Record record : batch) {
+                        if (!record.getValue().equals(Protocol.getBytes(response))) {
+                            throw new IOException("Wrong value of " + record.getKey());
+                        }
+                    }
+                    ops += 2L * batch.size();
+                }
+            }
+            return ops;
+        }
+    }
+
+    @NotNull
+    private static List<Record> randomBatch(
+            final int batchSize,
+            final int valueSize) {
+        final List<Record> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(Record.of(randomBytes(KEY_SIZE), randomBytes(valueSize)));
+        }
+        return batch;
+    }
+
+    @NotNull
+    private static ByteBuffer randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static void write(
+            @NotNull final SocketChannel channel,
+            @NotNull final ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    private static void expectOk(@NotNull final ByteBuffer response) throws IOException {
+        final byte status = response.get();
+        if (status == Protocol.ERROR) {
+            throw new IOException("Server failed: " + StandardCharsets.UTF_8.decode(response));
+        }
+        if (status != Protocol.OK) {
+            throw new ProtocolException("Unexpected status " + status);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+
+/**
+ * Binary protocol of {@link Server}. Every frame is its length (int, excluding itself),
+ * one byte of request type or response status, and a body. Byte strings are their length and bytes,
+ * the length of an absent one is -1. Requests may be pipelined, responses come in request order.
+ * <ul>
+ * <li>{@link #GET}: count, keys; answered by {@link #OK}: count, values in the order of keys</li>
+ * <li>{@link #PUT}: count, pairs of key and value; answered by empty {@link #OK}</li>
+ * <li>{@link #REMOVE}: count, keys; answered by empty {@link #OK}</li>
+ * <li>{@link #RANGE}: from, to or absent, limit or -1; answered by {@link #CHUNK}s of count, pairs of key and value,
+ * streamed as the client reads them, and empty {@link #OK}</li>
+ * </ul>
+ * Any request may be answered by {@link #ERROR} with UTF-8 message instead.
+ */
+final class Protocol {
+    static final byte GET = 1;
+    static final byte PUT = 2;
+    static final byte REMOVE = 3;
+    static final byte RANGE = 4;
+
+    static final byte OK = 0;
+    static final byte CHUNK = 1;
+    static final byte ERROR = 2;
+
+    static final int HEADER_SIZE = Integer.BYTES + 1;
+    static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    static final int ABSENT = -1;
+
+    private Protocol() {
+        // Not instantiable
+    }
+
+    @NotNull
+    static ByteBuffer getRequest(@NotNull final Collection<ByteBuffer> keys) {
+        return keysRequest(GET, keys);
+    }
+
+    @NotNull
+    static ByteBuffer removeRequest(@NotNull final Collection<ByteBuffer> keys) {
+        return keysRequest(REMOVE, keys);
+    }
+
+    @NotNull
+    private static ByteBuffer keysRequest(
+            final byte type,
+            @NotNull final Collection<ByteBuffer> keys) {
+        int size = Integer.BYTES;
+        for (final ByteBuffer key : keys) {
+            size += Integer.BYTES + key.remaining();
+        }
+        final ByteBuffer frame = frame(type, size).putInt(keys.size());
+        for (final ByteBuffer key : keys) {
+            putBytes(frame, key);
+        }
+        return frame.flip();
+    }
+
+    @NotNull
+    static ByteBuffer putRequest(@NotNull final Collection<Record> records) {
+        int size = Integer.BYTES;
+        for (final Record record : records) {
+            size += 2 * Integer.BYTES + record.getKey().remaining() + record.getValue().remaining();
+        }
+        final ByteBuffer frame = frame(PUT, size).putInt(records.size());
+        for (final Record record : records) {
+            putBytes(frame, record.getKey());
+            putBytes(frame, record.getValue());
+        }
+        return frame.flip();
+    }
+
+    @NotNull
+    static ByteBuffer rangeRequest(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final int limit) {
+        final int size = 3 * Integer.BYTES + from.remaining() + (to == null ? 0 : to.remaining());
+        final ByteBuffer frame = frame(RANGE, size);
+        putBytes(frame, from);
+        putBytes(frame, to);
+        return frame.putInt(limit).flip();
+    }
+
+    @NotNull
+    private static ByteBuffer frame(
+            final byte type,
+            final int bodySize) {
+        return ByteBuffer.allocate(HEADER_SIZE + bodySize).putInt(1 + bodySize).put(type);
+    }
+
+    static void putBytes(
+            @NotNull final ByteBuffer dst,
+            @Nullable final ByteBuffer bytes) {
+        if (bytes == null) {
+            dst.putInt(ABSENT);
+        } else {
+            dst.putInt(bytes.remaining()).put(bytes.duplicate());
+        }
+    }
+
+    /**
+     * Reads byte string from the frame, sharing its content.
+     *
+     * @return bytes or null if absent
+     */
+    @Nullable
+    static ByteBuffer getBytes(@NotNull final ByteBuffer frame) throws ProtocolException {
+        final int size = frame.getInt();
+        if (size == ABSENT) {
+            return null;
+        }
+        if (size < 0 || size > frame.remaining()) {
+            throw new ProtocolException("Bad byte string size " + size);
+        }
+        final ByteBuffer result = frame.slice().limit(size);
+        frame.position(frame.position() + size);
+        return result;
+    }
+
+    /**
+     * Reads next frame from blocking channel.
+     *
+     * @return frame positioned at the type or status byte
+     */
+    @NotNull
+    static ByteBuffer readFrame(@NotNull final ReadableByteChannel channel) throws IOException {
+        final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        readFully(channel, length);
+        final int size = length.flip().getInt();
+        if (size <= 0 || size > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Bad frame size " + size);
+        }
+        final ByteBuffer frame = ByteBuffer.allocate(size);
+        readFully(channel, frame);
+        return frame.flip();
+    }
+
+    private static void readFully(
+            @NotNull final ReadableByteChannel channel,
+            @NotNull final ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst) < 0) {
+                throw new EOFException("Connection closed");
+            }
+        }
+    }
+}
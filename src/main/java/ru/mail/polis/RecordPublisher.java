@@ -0,0 +1,156 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * {@link Flow.Publisher} of {@link Record}s from a stream opened for each subscriber.
+ * Records are read on the executor only as far as subscribers requested, one drain task at a time,
+ * so a subscriber requesting more from onNext does not recurse even on a direct executor.
+ */
+public final class RecordPublisher implements Flow.Publisher<Record> {
+    private final Source source;
+    private final Executor executor;
+
+    /**
+     * Creates publisher.
+     *
+     * @param source   - opens stream of records, called on the executor on first request
+     * @param executor - executor reading records and signalling subscribers
+     */
+    public RecordPublisher(
+            @NotNull final Source source,
+            @NotNull final Executor executor) {
+        this.source = source;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(@NotNull final Flow.Subscriber<? super Record> subscriber) {
+        Objects.requireNonNull(subscriber);
+        subscriber.onSubscribe(new RecordSubscription(subscriber));
+    }
+
+    /**
+     * Opens stream of records.
+     */
+    @FunctionalInterface
+    public interface Source {
+        @NotNull
+        Stream<Record> open() throws IOException;
+    }
+
+    private final class RecordSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Record> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable badRequest;
+
+        //Touched by the drain task only
+        private Stream<Record> stream;
+        private Iterator<Record> iter;
+        private boolean done;
+
+        RecordSubscription(@NotNull final Flow.Subscriber<? super Record> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0L) {
+                badRequest = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                demand.getAndUpdate(d -> d + n < 0L ? Long.MAX_VALUE : d + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    pending.set(0);
+                    if (!done) {
+                        done = true;
+                        subscriber.onError(e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                finish();
+                return;
+            }
+            if (badRequest != null) {
+                finish();
+                subscriber.onError(badRequest);
+                return;
+            }
+            try {
+                if (iter == null) {
+                    stream = source.open();
+                    iter = stream.iterator();
+                }
+                final long requested = demand.get();
+                long emitted = 0L;
+                while (emitted != requested && !cancelled && iter.hasNext()) {
+                    subscriber.onNext(iter.next());
+                    emitted++;
+                }
+                if (cancelled) {
+                    finish();
+                    return;
+                }
+                if (!iter.hasNext()) {
+                    finish();
+                    subscriber.onComplete();
+                    return;
+                }
+                if (requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-emitted);
+                }
+            } catch (IOException | RuntimeException e) {
+                finish();
+                subscriber.onError(e);
+            }
+        }
+
+        private void finish() {
+            done = true;
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+}
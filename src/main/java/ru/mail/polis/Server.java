@@ -0,0 +1,515 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
+
+/**
+ * Network server of {@link DAO} speaking {@link Protocol}. Connections are spread over event loops,
+ * one per core by default, each with its own selector and thread running requests of its connections
+ * in arrival order, so pipelined requests need no locking or reordering.
+ * Range responses are produced as the client reads them, reading of requests pauses while
+ * too many response bytes wait for the client.
+ */
+public final class Server implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(Server.class);
+    private static final String DATA = "data";
+    private static final int DEFAULT_PORT = 8080;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CHUNK_RECORDS = 256;
+    //Response bytes not taken by the client after which no more requests are run
+    private static final int HIGH_WATER = 1024 * 1024;
+
+    private final DAO dao;
+    private final ServerSocketChannel server;
+    private final List<EventLoop> loops;
+    private volatile boolean running = true;
+    //Touched by the accepting loop only
+    private int next;
+
+    /**
+     * Creates server, call {@link #start()} to serve.
+     *
+     * @param dao     - store to serve, not closed by the server
+     * @param address - address to listen, port 0 picks a free one
+     * @param threads - number of event loops
+     */
+    public Server(
+            @NotNull final DAO dao,
+            @NotNull final InetSocketAddress address,
+            final int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Non-positive number of threads: " + threads);
+        }
+        this.dao = dao;
+        this.server = ServerSocketChannel.open();
+        this.loops = new ArrayList<>(threads);
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            for (int i = 0; i < threads; i++) {
+                loops.add(new EventLoop(i));
+            }
+            server.register(loops.get(0).selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Port the server listens.
+     */
+    public int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    public void start() {
+        for (final EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Stops event loops and closes connections, the store stays open.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (final EventLoop loop : loops) {
+            loop.selector.wakeup();
+            if (loop.thread.isAlive()) {
+                try {
+                    loop.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        for (final EventLoop loop : loops) {
+            loop.selector.close();
+        }
+        server.close();
+    }
+
+    /**
+     * Serves DB in the data directory on the port given as the only argument.
+     */
+    public static void main(final String[] args) throws IOException {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        final File data = new File(DATA);
+        if (!data.exists() && !data.mkdir()) {
+            throw new IOException("Can't create directory: " + data);
+        }
+        final DAO dao = DAOFactory.create(data);
+        final Server server = new Server(
+                dao,
+                new InetSocketAddress(port),
+                Runtime.getRuntime().availableProcessors());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                dao.close();
+            } catch (IOException e) {
+                log.error("Can't stop server", e);
+            }
+        }));
+        server.start();
+        log.info("Serving {} on port {}", data.getAbsolutePath(), server.port());
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final EventLoop loop = loops.get(next);
+        next = (next + 1) % loops.size();
+        loop.accepted.add(channel);
+        loop.selector.wakeup();
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+
+        EventLoop(final int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "server-" + index);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    register();
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                log.error("Event loop failed", e);
+            } finally {
+                for (final SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                SocketChannel channel;
+                while ((channel = accepted.poll()) != null) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        private void register() {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                try {
+                    final Connection connection = new Connection(channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    log.warn("Can't register connection", e);
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        private void handle(@NotNull final SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                try {
+                    accept();
+                } catch (IOException e) {
+                    log.warn("Can't accept connection", e);
+                }
+                return;
+            }
+            final Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.process();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Closing connection", e);
+                connection.close();
+            }
+        }
+    }
+
+    private static void closeQuietly(@NotNull final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.debug("Can't close", e);
+        }
+    }
+
+    /**
+     * State of one client, touched by its event loop only. Both buffers are kept in write mode.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        //Range response being streamed
+        private Stream<Record> rangeStream;
+        private Iterator<Record> range;
+        private long rangeLeft;
+
+        Connection(@NotNull final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            process();
+        }
+
+        /**
+         * Runs buffered requests and sends responses while the client takes them.
+         */
+        void process() throws IOException {
+            do {
+                runRequests();
+                flush();
+            } while (out.position() == 0 && (range != null || hasFrame()));
+            int ops = 0;
+            if (in.hasRemaining() && out.position() < HIGH_WATER) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (out.position() > 0 || range != null) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        private boolean hasFrame() {
+            return in.position() >= Integer.BYTES && Integer.BYTES + in.getInt(0) <= in.position();
+        }
+
+        private void runRequests() throws ProtocolException {
+            in.flip();
+            int needed = 0;
+            try {
+                while (out.position() < HIGH_WATER) {
+                    if (range != null) {
+                        streamRange();
+                        continue;
+                    }
+                    if (in.remaining() < Integer.BYTES) {
+                        break;
+                    }
+                    final int size = in.getInt(in.position());
+                    if (size <= 0 || size > Protocol.MAX_FRAME_SIZE) {
+                        throw new ProtocolException("Bad frame size " + size);
+                    }
+                    if (in.remaining() < Integer.BYTES + size) {
+                        needed = Integer.BYTES + size;
+                        break;
+                    }
+                    final ByteBuffer frame = in.duplicate();
+                    frame.position(in.position() + Integer.BYTES).limit(in.position() + Integer.BYTES + size);
+                    in.position(frame.limit());
+                    run(frame.slice());
+                }
+            } finally {
+                in.compact();
+            }
+            if (in.capacity() < needed) {
+                final ByteBuffer grown = ByteBuffer.allocate(needed);
+                grown.put(in.flip());
+                in = grown;
+            }
+        }
+
+        private void run(@NotNull final ByteBuffer frame) throws ProtocolException {
+            final int start = out.position();
+            try {
+                final byte type = frame.get();
+                switch (type) {
+                    case Protocol.GET:
+                        get(frame);
+                        break;
+                    case Protocol.PUT:
+                        put(frame);
+                        break;
+                    case Protocol.REMOVE:
+                        remove(frame);
+                        break;
+                    case Protocol.RANGE:
+                        openRange(frame);
+                        break;
+                    default:
+                        throw new ProtocolException("Unknown request type " + type);
+                }
+            } catch (BufferUnderflowException e) {
+                throw new ProtocolException("Truncated request");
+            } catch (ProtocolException e) {
+                //A client out of sync with the protocol gets its connection closed
+                throw e;
+            } catch (IOException | UncheckedIOException e) {
+                out.position(start);
+                error(e);
+            }
+        }
+
+        private void get(@NotNull final ByteBuffer frame) throws IOException {
+            final int count = count(frame);
+            final int start = begin(Protocol.OK);
+            reserve(Integer.BYTES);
+            out.putInt(count);
+            for (int i = 0; i < count; i++) {
+                ByteBuffer value;
+                try {
+                    value = dao.get(key(frame));
+                } catch (NoSuchElementException e) {
+                    value = null;
+                }
+                reserve(Integer.BYTES + (value == null ? 0 : value.remaining()));
+                Protocol.putBytes(out, value);
+            }
+            end(start);
+        }
+
+        private void put(@NotNull final ByteBuffer frame) throws IOException {
+            final int count = count(frame);
+            for (int i = 0; i < count; i++) {
+                final ByteBuffer key = copy(key(frame));
+                dao.upsert(key, copy(key(frame)));
+            }
+            end(begin(Protocol.OK));
+        }
+
+        private void remove(@NotNull final ByteBuffer frame) throws IOException {
+            final int count = count(frame);
+            for (int i = 0; i < count; i++) {
+                dao.remove(copy(key(frame)));
+            }
+            end(begin(Protocol.OK));
+        }
+
+        private void openRange(@NotNull final ByteBuffer frame) throws IOException {
+            final ByteBuffer from = copy(key(frame));
+            final ByteBuffer to = Protocol.getBytes(frame);
+            final int limit = frame.getInt();
+            rangeStream = dao.stream(from, to == null ? null : copy(to), false);
+            range = rangeStream.iterator();
+            rangeLeft = limit < 0 ? Long.MAX_VALUE : limit;
+        }
+
+        /**
+         * Writes next chunk of the range, and the end of response when it is exhausted.
+         */
+        private void streamRange() {
+            final int start = begin(Protocol.CHUNK);
+            reserve(Integer.BYTES);
+            final int countPosition = out.position();
+            out.putInt(0);
+            int count = 0;
+            try {
+                while (count < CHUNK_RECORDS && rangeLeft > 0 && range.hasNext()) {
+                    final Record record = range.next();
+                    reserve(2 * Integer.BYTES + record.getKey().remaining() + record.getValue().remaining());
+                    Protocol.putBytes(out, record.getKey());
+                    Protocol.putBytes(out, record.getValue());
+                    count++;
+                    rangeLeft--;
+                }
+                if (count == 0) {
+                    out.position(start);
+                } else {
+                    out.putInt(countPosition, count);
+                    end(start);
+                }
+                if (rangeLeft == 0 || !range.hasNext()) {
+                    closeRange();
+                    end(begin(Protocol.OK));
+                }
+            } catch (UncheckedIOException e) {
+                out.position(start);
+                closeRange();
+                error(e);
+            }
+        }
+
+        private void closeRange() {
+            if (rangeStream != null) {
+                rangeStream.close();
+                rangeStream = null;
+                range = null;
+            }
+        }
+
+        private void error(@NotNull final Exception e) {
+            log.warn("Request failed", e);
+            final String message = String.valueOf(e.getMessage());
+            final ByteBuffer bytes = ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+            final int start = begin(Protocol.ERROR);
+            reserve(bytes.remaining());
+            out.put(bytes);
+            end(start);
+        }
+
+        private int count(@NotNull final ByteBuffer frame) throws ProtocolException {
+            final int count = frame.getInt();
+            if (count < 0) {
+                throw new ProtocolException("Negative count " + count);
+            }
+            return count;
+        }
+
+        @NotNull
+        private ByteBuffer key(@NotNull final ByteBuffer frame) throws ProtocolException {
+            final ByteBuffer key = Protocol.getBytes(frame);
+            if (key == null) {
+                throw new ProtocolException("Absent key");
+            }
+            return key;
+        }
+
+        private int begin(final byte status) {
+            reserve(Protocol.HEADER_SIZE);
+            final int start = out.position();
+            out.putInt(0).put(status);
+            return start;
+        }
+
+        private void end(final int start) {
+            out.putInt(start, out.position() - start - Integer.BYTES);
+        }
+
+        private void reserve(final int size) {
+            if (out.remaining() < size) {
+                final ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + size));
+                grown.put(out.flip());
+                out = grown;
+            }
+        }
+
+        private void flush() throws IOException {
+            if (out.position() == 0) {
+                return;
+            }
+            out.flip();
+            channel.write(out);
+            out.compact();
+            if (out.position() == 0 && out.capacity() > BUFFER_SIZE) {
+                out = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+        }
+
+        void close() {
+            closeRange();
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer bytes) {
+        return ByteBuffer.allocate(bytes.remaining()).put(bytes.duplicate()).flip();
+    }
+}
@@ -0,0 +1,105 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * Decides where values of a table being written go and appends large ones to the blob file of the table.
+ * The file is created on the first such value.
+ */
+final class BlobLog implements Closeable {
+    private final File file;
+    private final int gen;
+    private final long threshold;
+    private final Set<Integer> relocate;
+    private final boolean force;
+    private BlockWriter writer;
+
+    /**
+     * Creates log of the table generation.
+     *
+     * @param file      - blob file of the generation
+     * @param gen       - table generation
+     * @param threshold - min size of values put out of rows, zero keeps new values in rows
+     * @param relocate  - blob files collected by compaction, values referenced there are copied
+     * @param force     - whether to force the file on close
+     */
+    BlobLog(
+            @NotNull final File file,
+            final int gen,
+            final long threshold,
+            @NotNull final Set<Integer> relocate,
+            final boolean force) {
+        this.file = file;
+        this.gen = gen;
+        this.threshold = threshold;
+        this.relocate = relocate;
+        this.force = force;
+    }
+
+    /**
+     * Writes blob reference of the value to the row if the value belongs out of rows.
+     *
+     * @return false if the value should be written to the row itself
+     */
+    boolean place(
+            @NotNull final Value value,
+            @NotNull final BlockWriter row,
+            @NotNull final TableMeta.Builder meta) throws IOException {
+        final BlobRef ref = value.blobRef();
+        if (ref != null && !relocate.contains(ref.gen())) {
+            putRef(row, meta, ref.gen(), ref.offset(), ref.length());
+            return true;
+        }
+        if (ref == null && (threshold == 0L || value.rawData().remaining() <= threshold)) {
+            return false;
+        }
+        final ByteBuffer data = value.getData();
+        if (writer == null) {
+            writer = new BlockWriter(new FileOutputStream(file).getChannel(), force);
+        }
+        final long offset = writer.position();
+        final int length = data.remaining();
+        writer.put(data);
+        putRef(row, meta, gen, offset, length);
+        return true;
+    }
+
+    private static void putRef(
+            @NotNull final BlockWriter row,
+            @NotNull final TableMeta.Builder meta,
+            final int gen,
+            final long offset,
+            final int length) throws IOException {
+        row.putInt(BlobRef.MARKER);
+        row.putInt(gen);
+        row.putLong(offset);
+        row.putInt(length);
+        meta.addBlob(gen, length);
+    }
+
+    /**
+     * Checks whether the blob file was created.
+     */
+    boolean written() {
+        return writer != null;
+    }
+
+    @NotNull
+    File file() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Location of a value stored in a blob file instead of the table row.
+ */
+final class BlobRef {
+    /**
+     * Value size written to a row instead of the value when the row holds a blob reference.
+     */
+    static final int MARKER = -1;
+    static final int SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final BlobStore.BlobFile file;
+    private final long offset;
+    private final int length;
+
+    BlobRef(
+            @NotNull final BlobStore.BlobFile file,
+            final long offset,
+            final int length) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @NotNull
+    BlobStore.BlobFile file() {
+        return file;
+    }
+
+    int gen() {
+        return file.gen();
+    }
+
+    long offset() {
+        return offset;
+    }
+
+    int length() {
+        return length;
+    }
+
+    @NotNull
+    ByteBuffer read() throws IOException {
+        final ByteBuffer result = ByteBuffer.allocate(length);
+        file.read(result, offset);
+        return result.flip();
+    }
+}
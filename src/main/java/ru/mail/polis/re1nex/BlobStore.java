@@ -0,0 +1,128 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Blob files of large values, one per table generation which wrote them.
+ * Tables referencing a blob file hold references to it, so it is closed when the last one is released
+ * and deleted then if compaction left no table referencing it.
+ */
+final class BlobStore {
+    static final String SUFFIX = ".blob";
+
+    private final File storage;
+    private final Map<Integer, BlobFile> open = new HashMap<>();
+
+    BlobStore(@NotNull final File storage) {
+        this.storage = storage;
+    }
+
+    @NotNull
+    File file(final int gen) {
+        return new File(storage, gen + SUFFIX);
+    }
+
+    /**
+     * Takes a reference to the blob file, opening it if nobody references it yet.
+     */
+    @NotNull
+    synchronized BlobFile retain(final int gen) throws IOException {
+        BlobFile blob = open.get(gen);
+        if (blob == null) {
+            blob = new BlobFile(gen, FileChannel.open(file(gen).toPath(), StandardOpenOption.READ));
+            open.put(gen, blob);
+        }
+        blob.refs++;
+        return blob;
+    }
+
+    synchronized void release(@NotNull final BlobFile blob) throws IOException {
+        if (--blob.refs > 0) {
+            return;
+        }
+        open.remove(blob.gen);
+        blob.channel.close();
+        if (blob.obsolete) {
+            Files.deleteIfExists(file(blob.gen).toPath());
+        }
+    }
+
+    /**
+     * Marks the blob file no longer referenced by current tables, so it is deleted when released.
+     */
+    synchronized void markObsolete(final int gen) {
+        final BlobFile blob = open.get(gen);
+        if (blob != null) {
+            blob.obsolete = true;
+        }
+    }
+
+    /**
+     * Size of the open blob file or zero if nobody references it.
+     */
+    synchronized long size(final int gen) {
+        final BlobFile blob = open.get(gen);
+        return blob == null ? 0L : blob.size;
+    }
+
+    /**
+     * Deletes blob files no table references, left by writes interrupted before their table was renamed.
+     */
+    synchronized void deleteUnreferenced() throws IOException {
+        final File[] files = storage.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            final String gen = file.getName().substring(0, file.getName().length() - SUFFIX.length());
+            if (!gen.matches("[0-9]+") || !open.containsKey(Integer.parseInt(gen))) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+
+    static final class BlobFile {
+        private final int gen;
+        private final FileChannel channel;
+        private final long size;
+        private int refs;
+        private boolean obsolete;
+
+        private BlobFile(
+                final int gen,
+                @NotNull final FileChannel channel) throws IOException {
+            this.gen = gen;
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        int gen() {
+            return gen;
+        }
+
+        /**
+         * Reads the whole value at given offset into the buffer.
+         */
+        void read(
+                @NotNull final ByteBuffer dst,
+                final long offset) throws IOException {
+            long pos = offset;
+            while (dst.hasRemaining()) {
+                final int read = channel.read(dst, pos);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of blob file " + gen + " at " + pos);
+                }
+                pos += read;
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Double-buffered table output: the caller encodes rows into one block
+ * while a background thread writes the other one to the channel.
+ */
+final class BlockWriter implements Closeable {
+    static final int BLOCK_SIZE = 256 * 1024;
+    private static final int BLOCKS = 2;
+    private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r, "sstable-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FileChannel channel;
+    private final boolean force;
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BLOCKS);
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(BLOCKS + 1);
+    private final Future<Void> writer;
+    private ByteBuffer block;
+    private long position;
+    private Checksums.Builder checksums;
+    //Bytes of the block already checksummed
+    private int checksummed;
+
+    /**
+     * Creates writer to the channel.
+     *
+     * @param channel - channel to write to, closed by the writer
+     * @param force   - whether to force written data to the device on close
+     */
+    BlockWriter(@NotNull final FileChannel channel, final boolean force) {
+        this(channel, force, false);
+    }
+
+    /**
+     * Creates writer to the channel, computing checksums of bytes written until {@link #checksums()} if asked.
+     */
+    BlockWriter(
+            @NotNull final FileChannel channel,
+            final boolean force,
+            final boolean withChecksums) {
+        this.channel = channel;
+        this.force = force;
+        this.checksums = withChecksums ? new Checksums.Builder() : null;
+        for (int i = 1; i < BLOCKS; i++) {
+            free.add(ByteBuffer.allocate(BLOCK_SIZE));
+        }
+        this.block = ByteBuffer.allocate(BLOCK_SIZE);
+        this.writer = WRITERS.submit(this::drain);
+    }
+
+    /**
+     * Number of bytes passed to the writer so far.
+     */
+    long position() {
+        return position;
+    }
+
+    /**
+     * Checksums of bytes written so far, later bytes are not checksummed.
+     */
+    @NotNull
+    Checksums checksums() {
+        assert checksums != null;
+        updateChecksums();
+        final Checksums result = checksums.build();
+        checksums = null;
+        return result;
+    }
+
+    private void updateChecksums() {
+        if (checksums != null) {
+            final ByteBuffer data = block.duplicate();
+            data.position(checksummed).limit(block.position());
+            checksums.update(data);
+        }
+        checksummed = block.position();
+    }
+
+    void putInt(final int value) throws IOException {
+        reserve(Integer.BYTES);
+        block.putInt(value);
+        position += Integer.BYTES;
+    }
+
+    void putLong(final long value) throws IOException {
+        reserve(Long.BYTES);
+        block.putLong(value);
+        position += Long.BYTES;
+    }
+
+    void put(@NotNull final ByteBuffer src) throws IOException {
+        final ByteBuffer data = src.duplicate();
+        position += data.remaining();
+        while (data.hasRemaining()) {
+            if (!block.hasRemaining()) {
+                submit();
+            }
+            final int size = Math.min(block.remaining(), data.remaining());
+            final int limit = data.limit();
+            data.limit(data.position() + size);
+            block.put(data);
+            data.limit(limit);
+        }
+    }
+
+    /**
+     * Waits until everything is written, forces it if asked and closes the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (block.position() > 0) {
+                submit();
+            }
+            full.add(EOF);
+            writer.get();
+            if (force) {
+                channel.force(true);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing table");
+        } catch (ExecutionException e) {
+            throw new IOException("Can't write table", e.getCause());
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void reserve(final int size) throws IOException {
+        if (block.remaining() < size) {
+            submit();
+        }
+    }
+
+    private void submit() throws IOException {
+        updateChecksums();
+        block.flip();
+        try {
+            full.put(block);
+            block = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing table");
+        }
+        block.clear();
+        checksummed = 0;
+    }
+
+    /**
+     * Writes blocks until EOF. After a failure blocks are only recycled,
+     * so the encoder never blocks forever, and the error is reported on close.
+     */
+    private Void drain() throws IOException, InterruptedException {
+        IOException failure = null;
+        while (true) {
+            final ByteBuffer next = full.take();
+            if (next == EOF) {
+                break;
+            }
+            try {
+                while (failure == null && next.hasRemaining()) {
+                    channel.write(next);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            free.put(next);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return null;
+    }
+}
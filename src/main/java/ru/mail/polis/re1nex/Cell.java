@@ -3,8 +3,9 @@ package ru.mail.polis.re1nex;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.ByteBuffer;
+import java.util.Comparator;
 
-final class Cell implements Comparable<Cell> {
+final class Cell {
 
     @NotNull
     private final ByteBuffer key;
@@ -26,9 +27,14 @@ final class Cell implements Comparable<Cell> {
         return value;
     }
 
-    @Override
-    public int compareTo(@NotNull final Cell cell) {
-        final int cmp = key.compareTo(cell.getKey());
-        return cmp == 0 ? Long.compare(cell.getValue().getTimestamp(), value.getTimestamp()) : cmp;
+    /**
+     * Orders cells by key and then from the newest to the oldest.
+     */
+    @NotNull
+    static Comparator<Cell> comparator(@NotNull final KeyOrder order) {
+        return (a, b) -> {
+            final int cmp = order.compare(a.key, b.key);
+            return cmp == 0 ? Long.compare(b.value.getTimestamp(), a.value.getTimestamp()) : cmp;
+        };
     }
 }
@@ -0,0 +1,64 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Movable view over {@link Cell}s of a {@link Table} without per-cell allocations.
+ * Buffers returned by {@link #key()} and {@link #value()} are reused and valid until the next move.
+ */
+interface CellCursor {
+
+    /**
+     * Positions cursor at the first cell with key not less than given one.
+     */
+    void seek(@NotNull ByteBuffer key) throws IOException;
+
+    void next() throws IOException;
+
+    boolean isValid();
+
+    @NotNull
+    ByteBuffer key();
+
+    long timestamp();
+
+    boolean isTombstone();
+
+    /**
+     * Value of the current cell, must not be called for tombstones.
+     */
+    @NotNull
+    ByteBuffer value() throws IOException;
+
+    /**
+     * Returns buffer of at least given capacity, reusing the old one when possible.
+     */
+    @NotNull
+    static ByteBuffer ensureCapacity(
+            @NotNull final ByteBuffer buffer,
+            final int capacity) {
+        if (buffer.capacity() >= capacity) {
+            return buffer.clear().limit(capacity);
+        }
+        return ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2)).limit(capacity);
+    }
+
+    /**
+     * Copies remaining bytes of source to the reused buffer without touching source position.
+     */
+    @NotNull
+    static ByteBuffer copy(
+            @NotNull final ByteBuffer src,
+            @NotNull final ByteBuffer dst) {
+        final ByteBuffer result = ensureCapacity(dst, src.remaining());
+        if (src.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + src.position(), result.array(), 0, src.remaining());
+        } else {
+            result.put(src.duplicate()).flip();
+        }
+        return result;
+    }
+}
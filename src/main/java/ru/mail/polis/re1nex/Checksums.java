@@ -0,0 +1,134 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C of a file region cut into blocks of {@link #BLOCK} bytes, the last one may be shorter.
+ * Blocks are verified as a whole when they are read in bulk, and once per open table when point reads
+ * or cursors reach them. Sizes and offsets read on the way to a row are only checked against bounds.
+ */
+final class Checksums {
+    static final int BLOCK = 64 * 1024;
+
+    private final int[] crcs;
+    private final long size;
+
+    Checksums(
+            @NotNull final int[] crcs,
+            final long size) {
+        this.crcs = crcs;
+        this.size = size;
+    }
+
+    /**
+     * Number of bytes from the start of the file covered by the checksums.
+     */
+    long size() {
+        return size;
+    }
+
+    int blocks() {
+        return crcs.length;
+    }
+
+    int crc(final int block) {
+        return crcs[block];
+    }
+
+    static int blocks(final long size) {
+        return (int) ((size + BLOCK - 1) / BLOCK);
+    }
+
+    /**
+     * Rounds position down to the start of its block.
+     */
+    static long blockStart(final long position) {
+        return position - position % BLOCK;
+    }
+
+    static int crc(@NotNull final ByteBuffer data) {
+        final CRC32C crc = new CRC32C();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Checks whole blocks read from the file.
+     *
+     * @param data     - bytes from the block start, ending at a block end or at the end of covered region
+     * @param position - file position of the first byte
+     */
+    void verify(
+            @NotNull final ByteBuffer data,
+            final long position) throws IOException {
+        assert position % BLOCK == 0;
+        final ByteBuffer block = data.duplicate();
+        long blockPosition = position;
+        while (block.position() < data.limit()) {
+            final int index = (int) (blockPosition / BLOCK);
+            final int length = (int) Math.min(BLOCK, size - blockPosition);
+            if (index >= crcs.length || length > data.limit() - block.position()) {
+                throw new IOException("Block at " + blockPosition + " is not covered by checksums");
+            }
+            block.limit(block.position() + length);
+            if (crc(block) != crcs[index]) {
+                throw new IOException("Checksum mismatch in block " + index + " at " + blockPosition);
+            }
+            block.position(block.limit()).limit(data.limit());
+            blockPosition += length;
+        }
+    }
+
+    /**
+     * Computes checksums of a byte stream as it is written.
+     */
+    static final class Builder {
+        private final CRC32C crc = new CRC32C();
+        private int[] crcs = new int[16];
+        private int count;
+        private long size;
+
+        /**
+         * Adds bytes between position and limit of the buffer.
+         */
+        void update(@NotNull final ByteBuffer data) {
+            final ByteBuffer rest = data.duplicate();
+            while (rest.hasRemaining()) {
+                final int inBlock = (int) (size % BLOCK);
+                final int length = Math.min(rest.remaining(), BLOCK - inBlock);
+                final int limit = rest.limit();
+                rest.limit(rest.position() + length);
+                crc.update(rest);
+                rest.limit(limit);
+                size += length;
+                if (size % BLOCK == 0) {
+                    add();
+                }
+            }
+        }
+
+        private void add() {
+            if (count == crcs.length) {
+                crcs = Arrays.copyOf(crcs, count * 2);
+            }
+            crcs[count++] = (int) crc.getValue();
+            crc.reset();
+        }
+
+        /**
+         * Closes the last partial block.
+         */
+        @NotNull
+        Checksums build() {
+            if (size % BLOCK != 0) {
+                add();
+            }
+            return new Checksums(Arrays.copyOf(crcs, count), size);
+        }
+    }
+}
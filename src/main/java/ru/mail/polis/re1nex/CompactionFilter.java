@@ -0,0 +1,23 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides what compaction keeps of live keys. Compaction rewrites all tables when a filter is set,
+ * so each key stored before {@link NewDAO#compact()} is called passes the filter once.
+ */
+@FunctionalInterface
+public interface CompactionFilter {
+    /**
+     * Called for the newest value of each live key, the buffer may not be modified.
+     *
+     * @return the given value to keep it, another one to replace it or null to drop the key
+     */
+    @Nullable
+    ByteBuffer filter(
+            @NotNull ByteBuffer key,
+            @NotNull ByteBuffer value);
+}
@@ -0,0 +1,356 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tunable options of {@link NewDAO}.
+ */
+public final class Config {
+    public static final Config DEFAULT = builder().build();
+
+    private final long rowCacheBytes;
+    private final KeyOrder keyOrder;
+    private final boolean migrateKeyOrder;
+    private final int compactionThreads;
+    private final Durability durability;
+    private final long blobThreshold;
+    private final double blobGarbageRatio;
+    private final int maxPendingFlushes;
+    private final int compactionTrigger;
+    private final int slowdownTables;
+    private final int stopTables;
+    private final MemTableType memTableType;
+    private final int ioThreads;
+    private final long scrubIntervalMillis;
+    private final MergeOperator mergeOperator;
+    private final CompactionFilter compactionFilter;
+
+    private Config(@NotNull final Builder builder) {
+        this.compactionThreads = builder.compactionThreads;
+        this.rowCacheBytes = builder.rowCacheBytes;
+        this.keyOrder = builder.keyOrder;
+        this.migrateKeyOrder = builder.migrateKeyOrder;
+        this.durability = builder.durability;
+        this.blobThreshold = builder.blobThreshold;
+        this.blobGarbageRatio = builder.blobGarbageRatio;
+        this.maxPendingFlushes = builder.maxPendingFlushes;
+        this.compactionTrigger = builder.compactionTrigger;
+        this.slowdownTables = builder.slowdownTables;
+        this.stopTables = builder.stopTables;
+        this.memTableType = builder.memTableType;
+        this.ioThreads = builder.ioThreads;
+        this.scrubIntervalMillis = builder.scrubIntervalMillis;
+        this.mergeOperator = builder.mergeOperator;
+        this.compactionFilter = builder.compactionFilter;
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Options of one of the shards splitting the row cache and thread budgets of these options between them.
+     */
+    @NotNull
+    Config forShard(final int shards) {
+        final Builder builder = new Builder();
+        builder.rowCacheBytes = rowCacheBytes / shards;
+        builder.keyOrder = keyOrder;
+        builder.migrateKeyOrder = migrateKeyOrder;
+        builder.compactionThreads = Math.max(1, compactionThreads / shards);
+        builder.durability = durability;
+        builder.blobThreshold = blobThreshold;
+        builder.blobGarbageRatio = blobGarbageRatio;
+        builder.maxPendingFlushes = maxPendingFlushes;
+        builder.compactionTrigger = compactionTrigger;
+        builder.slowdownTables = slowdownTables;
+        builder.stopTables = stopTables;
+        builder.memTableType = memTableType;
+        builder.ioThreads = Math.max(1, ioThreads / shards);
+        builder.scrubIntervalMillis = scrubIntervalMillis;
+        builder.mergeOperator = mergeOperator;
+        builder.compactionFilter = compactionFilter;
+        return new Config(builder);
+    }
+
+    long getRowCacheBytes() {
+        return rowCacheBytes;
+    }
+
+    @NotNull
+    KeyOrder getKeyOrder() {
+        return keyOrder;
+    }
+
+    boolean isMigrateKeyOrder() {
+        return migrateKeyOrder;
+    }
+
+    int getCompactionThreads() {
+        return compactionThreads;
+    }
+
+    @NotNull
+    Durability getDurability() {
+        return durability;
+    }
+
+    long getBlobThreshold() {
+        return blobThreshold;
+    }
+
+    double getBlobGarbageRatio() {
+        return blobGarbageRatio;
+    }
+
+    int getMaxPendingFlushes() {
+        return maxPendingFlushes;
+    }
+
+    int getCompactionTrigger() {
+        return compactionTrigger;
+    }
+
+    int getSlowdownTables() {
+        return slowdownTables;
+    }
+
+    int getStopTables() {
+        return stopTables;
+    }
+
+    @NotNull
+    MemTableType getMemTableType() {
+        return memTableType;
+    }
+
+    int getIoThreads() {
+        return ioThreads;
+    }
+
+    long getScrubIntervalMillis() {
+        return scrubIntervalMillis;
+    }
+
+    @Nullable
+    MergeOperator getMergeOperator() {
+        return mergeOperator;
+    }
+
+    @Nullable
+    CompactionFilter getCompactionFilter() {
+        return compactionFilter;
+    }
+
+    public static final class Builder {
+        private long rowCacheBytes;
+        private KeyOrder keyOrder = KeyOrder.UNSIGNED;
+        private boolean migrateKeyOrder;
+        private int compactionThreads = Runtime.getRuntime().availableProcessors();
+        private Durability durability = Durability.NONE;
+        private long blobThreshold;
+        private double blobGarbageRatio = 0.5;
+        private int maxPendingFlushes = 2;
+        private int compactionTrigger;
+        private int slowdownTables;
+        private int stopTables;
+        private MemTableType memTableType = MemTableType.SORTED;
+        private int ioThreads = Runtime.getRuntime().availableProcessors();
+        private long scrubIntervalMillis;
+        private MergeOperator mergeOperator;
+        private CompactionFilter compactionFilter;
+
+        private Builder() {
+            // Use Config.builder()
+        }
+
+        /**
+         * Sets byte budget of the hot-key row cache in front of the read path.
+         * Zero disables the cache.
+         */
+        @NotNull
+        public Builder rowCacheBytes(final long rowCacheBytes) {
+            if (rowCacheBytes < 0L) {
+                throw new IllegalArgumentException("Negative row cache size: " + rowCacheBytes);
+            }
+            this.rowCacheBytes = rowCacheBytes;
+            return this;
+        }
+
+        /**
+         * Sets order of keys, {@link KeyOrder#UNSIGNED} by default.
+         */
+        @NotNull
+        public Builder keyOrder(@NotNull final KeyOrder keyOrder) {
+            this.keyOrder = keyOrder;
+            return this;
+        }
+
+        /**
+         * Allows to rewrite tables sorted in other order on open instead of failing.
+         */
+        @NotNull
+        public Builder migrateKeyOrder(final boolean migrateKeyOrder) {
+            this.migrateKeyOrder = migrateKeyOrder;
+            return this;
+        }
+
+        /**
+         * Sets max number of key range partitions merged in parallel by compaction.
+         */
+        @NotNull
+        public Builder compactionThreads(final int compactionThreads) {
+            if (compactionThreads <= 0) {
+                throw new IllegalArgumentException("Non-positive compaction threads: " + compactionThreads);
+            }
+            this.compactionThreads = compactionThreads;
+            return this;
+        }
+
+        /**
+         * Sets when written tables are forced to the device, {@link Durability#NONE} by default.
+         */
+        @NotNull
+        public Builder durability(@NotNull final Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * Sets size above which values are written to blob files and tables keep only references to them,
+         * so compaction does not copy them. Zero (default) keeps all values in tables.
+         */
+        @NotNull
+        public Builder blobThreshold(final long blobThreshold) {
+            if (blobThreshold < 0L) {
+                throw new IllegalArgumentException("Negative blob threshold: " + blobThreshold);
+            }
+            this.blobThreshold = blobThreshold;
+            return this;
+        }
+
+        /**
+         * Sets share of unreferenced bytes in a blob file at which compaction copies its live values
+         * to a new blob file and deletes it, 0.5 by default.
+         */
+        @NotNull
+        public Builder blobGarbageRatio(final double blobGarbageRatio) {
+            if (!(blobGarbageRatio > 0.0 && blobGarbageRatio <= 1.0)) {
+                throw new IllegalArgumentException("Blob garbage ratio out of (0, 1]: " + blobGarbageRatio);
+            }
+            this.blobGarbageRatio = blobGarbageRatio;
+            return this;
+        }
+
+        /**
+         * Sets number of full memtables waiting for background flush at which writes stop, 2 by default.
+         */
+        @NotNull
+        public Builder maxPendingFlushes(final int maxPendingFlushes) {
+            if (maxPendingFlushes <= 0) {
+                throw new IllegalArgumentException("Non-positive max pending flushes: " + maxPendingFlushes);
+            }
+            this.maxPendingFlushes = maxPendingFlushes;
+            return this;
+        }
+
+        /**
+         * Sets number of tables overlapping others at which compaction starts in background,
+         * zero (default) disables it. Background compaction makes fewer partitions than the trigger,
+         * so it does not trigger itself.
+         */
+        @NotNull
+        public Builder compactionTrigger(final int compactionTrigger) {
+            if (compactionTrigger < 0 || compactionTrigger == 1) {
+                throw new IllegalArgumentException("Compaction trigger must be zero or at least 2: "
+                        + compactionTrigger);
+            }
+            this.compactionTrigger = compactionTrigger;
+            return this;
+        }
+
+        /**
+         * Sets numbers of overlapping tables at which writes are slowed down and stopped till compaction
+         * catches up, zeros (default) disable both. Requires compaction trigger below stop count.
+         */
+        @NotNull
+        public Builder writeStall(
+                final int slowdownTables,
+                final int stopTables) {
+            if (slowdownTables < 0 || stopTables < 0 || slowdownTables > stopTables
+                    || slowdownTables == 0 && stopTables > 0) {
+                throw new IllegalArgumentException("Bad write stall table counts: " + slowdownTables
+                        + ", " + stopTables);
+            }
+            this.slowdownTables = slowdownTables;
+            this.stopTables = stopTables;
+            return this;
+        }
+
+        /**
+         * Sets index of unflushed data, {@link MemTableType#SORTED} by default.
+         */
+        @NotNull
+        public Builder memTableType(@NotNull final MemTableType memTableType) {
+            this.memTableType = memTableType;
+            return this;
+        }
+
+        /**
+         * Sets number of threads serving asynchronous calls that have to read tables or wait for write stall.
+         */
+        @NotNull
+        public Builder ioThreads(final int ioThreads) {
+            if (ioThreads <= 0) {
+                throw new IllegalArgumentException("Non-positive I/O threads: " + ioThreads);
+            }
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * Sets pause between background checks of all tables against their checksums.
+         * Zero disables the scrubber.
+         */
+        @NotNull
+        public Builder scrubIntervalMillis(final long scrubIntervalMillis) {
+            if (scrubIntervalMillis < 0L) {
+                throw new IllegalArgumentException("Negative scrub interval: " + scrubIntervalMillis);
+            }
+            this.scrubIntervalMillis = scrubIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Sets operator applying operands of {@link NewDAO#merge(ByteBuffer, ByteBuffer)}, none by default.
+         * A store holding operands has to be opened with the same operator.
+         */
+        @NotNull
+        public Builder mergeOperator(@NotNull final MergeOperator mergeOperator) {
+            this.mergeOperator = mergeOperator;
+            return this;
+        }
+
+        /**
+         * Sets filter compaction passes live keys through, none by default.
+         */
+        @NotNull
+        public Builder compactionFilter(@NotNull final CompactionFilter compactionFilter) {
+            this.compactionFilter = compactionFilter;
+            return this;
+        }
+
+        @NotNull
+        public Config build() {
+            if (stopTables > 0 && (compactionTrigger == 0 || compactionTrigger >= stopTables)) {
+                throw new IllegalArgumentException("Write stall at " + stopTables
+                        + " tables needs background compaction triggered before it");
+            }
+            return new Config(this);
+        }
+    }
+}
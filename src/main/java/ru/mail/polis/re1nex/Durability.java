@@ -0,0 +1,21 @@
+package ru.mail.polis.re1nex;
+
+/**
+ * How hard {@link NewDAO} tries to keep written tables across a power loss.
+ */
+public enum Durability {
+    /**
+     * Never forces anything, leaving it to the OS. The fastest, for ephemeral nodes.
+     */
+    NONE,
+    /**
+     * Forces tables written since the last sync and the directory in one batch
+     * on close, before compaction or migration deletes its inputs.
+     */
+    DEFERRED,
+    /**
+     * Forces each table before it is renamed into place and the directory after it.
+     * Compaction renames all its outputs first and forces the directory once.
+     */
+    SYNC
+}
@@ -0,0 +1,187 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Memtable indexed by key hashes. Keys are sorted on demand for range reads and flush,
+ * the sorted snapshot is reused until the next write adds a key.
+ */
+final class HashMemTable extends MemTable {
+    private final ConcurrentHashMap<ByteBuffer, Value> map = new ConcurrentHashMap<>();
+    //Counts added keys after they are in the map, so a snapshot taken after reading it has them all
+    private final AtomicLong added = new AtomicLong();
+    private volatile SortedKeys sorted = new SortedKeys(0L, new ByteBuffer[0]);
+    //Key range is widened before a key gets into the map, so meta never misses a key readers may see
+    private final AtomicReference<ByteBuffer> min = new AtomicReference<>();
+    private final AtomicReference<ByteBuffer> max = new AtomicReference<>();
+
+    HashMemTable(@NotNull final KeyOrder order) {
+        super(order);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        final ByteBuffer[] keys = sortedKeys();
+        final int start = lowerBound(keys, from);
+        final int end = to == null ? keys.length : Math.max(start, lowerBound(keys, to));
+        return new Iterator<Cell>() {
+            private int index = start;
+
+            @Override
+            public boolean hasNext() {
+                return index < end;
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("Memtable is exhausted");
+                }
+                final ByteBuffer key = keys[index++];
+                return new Cell(key, map.get(key));
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) {
+        final Value value = map.get(key);
+        return value == null ? null : new Cell(key, value);
+    }
+
+    @Nullable
+    @Override
+    Value put(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value) {
+        widen(key);
+        final Value previous = map.put(key, value);
+        if (previous == null) {
+            added.incrementAndGet();
+        }
+        return previous;
+    }
+
+    @Nullable
+    @Override
+    Value update(
+            @NotNull final ByteBuffer key,
+            @NotNull final UnaryOperator<Value> update) {
+        widen(key);
+        final Value[] previous = new Value[1];
+        map.compute(key, (k, value) -> {
+            previous[0] = value;
+            return update.apply(value);
+        });
+        if (previous[0] == null) {
+            added.incrementAndGet();
+        }
+        return previous[0];
+    }
+
+    @Override
+    boolean replace(
+            @NotNull final ByteBuffer key,
+            @Nullable final Value expected,
+            @NotNull final Value value) {
+        if (expected != null) {
+            //Values are compared by identity
+            return map.replace(key, expected, value);
+        }
+        widen(key);
+        if (map.putIfAbsent(key, value) != null) {
+            return false;
+        }
+        added.incrementAndGet();
+        return true;
+    }
+
+    @NotNull
+    @Override
+    TableMeta meta() {
+        //Max is set after min
+        final ByteBuffer last = max.get();
+        final ByteBuffer first = min.get();
+        if (first == null || last == null) {
+            return TableMeta.empty(order);
+        }
+        return new TableMeta(order, first, last, 0L, Long.MAX_VALUE, -1L);
+    }
+
+    @Override
+    public void close() throws IOException {
+        map.clear();
+        min.set(null);
+        max.set(null);
+    }
+
+    private void widen(@NotNull final ByteBuffer key) {
+        widen(min, key, 1);
+        widen(max, key, -1);
+    }
+
+    /**
+     * Moves the bound to the key if the key is beyond it, writing nothing otherwise.
+     *
+     * @param sign - 1 for the lower bound, -1 for the upper one
+     */
+    private void widen(
+            @NotNull final AtomicReference<ByteBuffer> bound,
+            @NotNull final ByteBuffer key,
+            final int sign) {
+        while (true) {
+            final ByteBuffer current = bound.get();
+            if (current != null && sign * order.compare(key, current) >= 0 || bound.compareAndSet(current, key)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Keys never leave the map, removes are tombstones, so a snapshot stays valid while no key is added.
+     */
+    @NotNull
+    private ByteBuffer[] sortedKeys() {
+        final SortedKeys snapshot = sorted;
+        final long count = added.get();
+        if (snapshot.added == count) {
+            return snapshot.keys;
+        }
+        final ByteBuffer[] keys = map.keySet().toArray(new ByteBuffer[0]);
+        Arrays.sort(keys, order);
+        sorted = new SortedKeys(count, keys);
+        return keys;
+    }
+
+    private int lowerBound(
+            @NotNull final ByteBuffer[] keys,
+            @NotNull final ByteBuffer key) {
+        final int index = Arrays.binarySearch(keys, key, order);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static final class SortedKeys {
+        private final long added;
+        private final ByteBuffer[] keys;
+
+        SortedKeys(
+                final long added,
+                @NotNull final ByteBuffer[] keys) {
+            this.added = added;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Lexicographic key orders supported by {@link NewDAO}.
+ * Both find the first differing byte with {@link ByteBuffer#mismatch(ByteBuffer)}, which compares
+ * several bytes at a time, and differ only in how that byte is compared.
+ * The order is stored in every table, so it can't be switched without rewriting the data.
+ */
+public enum KeyOrder implements Comparator<ByteBuffer> {
+    /**
+     * Order of {@link ByteBuffer#compareTo(ByteBuffer)} comparing signed bytes.
+     * Tables written before the order became configurable use it.
+     */
+    SIGNED(0) {
+        @Override
+        int compare(final byte a, final byte b) {
+            return Byte.compare(a, b);
+        }
+    },
+
+    /**
+     * Order comparing bytes as unsigned values, i.e. the order of {@code memcmp}.
+     */
+    UNSIGNED(1) {
+        @Override
+        int compare(final byte a, final byte b) {
+            return Byte.compareUnsigned(a, b);
+        }
+    };
+
+    private final int id;
+
+    KeyOrder(final int id) {
+        this.id = id;
+    }
+
+    int id() {
+        return id;
+    }
+
+    @NotNull
+    static KeyOrder byId(final int id) {
+        for (final KeyOrder order : values()) {
+            if (order.id == id) {
+                return order;
+            }
+        }
+        throw new IllegalArgumentException("Unknown key order: " + id);
+    }
+
+    abstract int compare(byte a, byte b);
+
+    @Override
+    public int compare(
+            @NotNull final ByteBuffer a,
+            @NotNull final ByteBuffer b) {
+        final int i = a.mismatch(b);
+        if (i < 0) {
+            return 0;
+        }
+        if (i >= a.remaining() || i >= b.remaining()) {
+            return a.remaining() - b.remaining();
+        }
+        return compare(a.get(a.position() + i), b.get(b.position() + i));
+    }
+}
@@ -1,62 +1,204 @@
 package ru.mail.polis.re1nex;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 
-final class MemTable implements Table {
+/**
+ * Mutable table in memory. Iterators and cursors are weakly consistent,
+ * so they may be used while the table is updated.
+ */
+abstract class MemTable implements Table {
+    private final AtomicLong sizeInBytes = new AtomicLong(720L);
+    private final AtomicInteger rows = new AtomicInteger();
+    final KeyOrder order;
 
-    private final SortedMap<ByteBuffer, Value> map = new TreeMap<>();
-    private long sizeInBytes;
+    MemTable(@NotNull final KeyOrder order) {
+        this.order = order;
+    }
 
-    MemTable() {
-        sizeInBytes = 720L;
+    /**
+     * Creates empty memtable of given type.
+     */
+    @NotNull
+    static MemTable create(
+            @NotNull final KeyOrder order,
+            @NotNull final MemTableType type) {
+        return type == MemTableType.HASH ? new HashMemTable(order) : new SortedMemTable(order);
     }
 
     @NotNull
     @Override
-    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) throws IOException {
-        return map.tailMap(from)
-                .entrySet()
-                .stream()
-                .map(element -> new Cell(element.getKey(), element.getValue()))
-                .iterator();
+    public abstract Iterator<Cell> iterator(@NotNull ByteBuffer from, @Nullable ByteBuffer to);
+
+    @Nullable
+    @Override
+    public abstract Cell get(@NotNull ByteBuffer key);
+
+    /**
+     * Stores the value, returning the previous one of the key or null.
+     */
+    @Nullable
+    abstract Value put(
+            @NotNull ByteBuffer key,
+            @NotNull Value value);
+
+    /**
+     * Replaces the value of the key by the function of the previous one or null atomically,
+     * returning the previous one.
+     */
+    @Nullable
+    abstract Value update(
+            @NotNull ByteBuffer key,
+            @NotNull UnaryOperator<Value> update);
+
+    /**
+     * Stores the value if the key still has the expected one, compared by identity.
+     *
+     * @param expected - value read from this memtable, null if the key was absent
+     */
+    abstract boolean replace(
+            @NotNull ByteBuffer key,
+            @Nullable Value expected,
+            @NotNull Value value);
+
+    /**
+     * Meta with the current key range, timestamps are not tracked.
+     */
+    @NotNull
+    abstract TableMeta meta();
+
+    @NotNull
+    @Override
+    public CellCursor cursor() {
+        return new MemTableCursor();
     }
 
     @Override
     public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
-        if (map.containsKey(key)) {
-            sizeInBytes += value.remaining() + Long.BYTES;
+        final Value previous = put(key.duplicate(), new Value(System.currentTimeMillis(), value.duplicate()));
+        if (previous == null) {
+            rows.incrementAndGet();
+            sizeInBytes.addAndGet(value.remaining() + key.remaining() + Long.BYTES);
         } else {
-            sizeInBytes += value.remaining() + key.remaining() + Long.BYTES;
+            sizeInBytes.addAndGet(value.remaining() + Long.BYTES);
         }
-        map.put(key.duplicate(), new Value(System.currentTimeMillis(), value.duplicate()));
     }
 
     @Override
     public void remove(@NotNull final ByteBuffer key) throws IOException {
-        final Value previous = map.put(key.duplicate(), new Value(System.currentTimeMillis()));
+        final Value previous = put(key.duplicate(), new Value(System.currentTimeMillis()));
         if (previous == null) {
-            sizeInBytes += key.remaining();
+            rows.incrementAndGet();
+            sizeInBytes.addAndGet(key.remaining());
         } else if (!previous.isTombstone()) {
-            sizeInBytes -= previous.getData().remaining();
+            sizeInBytes.addAndGet(-previous.getData().remaining());
         }
     }
 
-    @Override
-    public void close() throws IOException {
-        map.clear();
+    /**
+     * Stores the operand, combined with the value of the key if this memtable has one.
+     */
+    void merge(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer operand,
+            @NotNull final MergeOperator operator) {
+        final ByteBuffer stored = key.duplicate();
+        final long timestamp = System.currentTimeMillis();
+        final Value previous = update(stored,
+                value -> Operands.combine(operator, stored, value, operand.duplicate(), timestamp));
+        if (previous == null) {
+            rows.incrementAndGet();
+            sizeInBytes.addAndGet(operand.remaining() + key.remaining() + Long.BYTES);
+        } else {
+            sizeInBytes.addAndGet(operand.remaining() + Long.BYTES);
+        }
+    }
+
+    /**
+     * Writes the value or a tombstone if null, unless the key got another value since expected was read.
+     */
+    boolean upsertIf(
+            @NotNull final ByteBuffer key,
+            @Nullable final Value expected,
+            @Nullable final ByteBuffer value) {
+        final long timestamp = System.currentTimeMillis();
+        final Value next = value == null ? new Value(timestamp) : new Value(timestamp, value.duplicate());
+        if (!replace(key.duplicate(), expected, next)) {
+            return false;
+        }
+        if (expected == null) {
+            rows.incrementAndGet();
+            sizeInBytes.addAndGet(key.remaining() + (value == null ? 0 : value.remaining() + Long.BYTES));
+        } else if (value != null) {
+            sizeInBytes.addAndGet(value.remaining() + Long.BYTES);
+        } else if (!expected.isTombstone()) {
+            sizeInBytes.addAndGet(-expected.getData().remaining());
+        }
+        return true;
     }
 
     int size() {
-        return map.size();
+        return rows.get();
     }
 
     long sizeInBytes() {
-        return sizeInBytes;
+        return sizeInBytes.get();
+    }
+
+    private final class MemTableCursor implements CellCursor {
+        private Iterator<Cell> iter = Collections.emptyIterator();
+        private Cell current;
+        private ByteBuffer keyBuffer = ByteBuffer.allocate(0);
+        private ByteBuffer valueBuffer = ByteBuffer.allocate(0);
+
+        @Override
+        public void seek(@NotNull final ByteBuffer key) {
+            iter = iterator(key, null);
+            next();
+        }
+
+        @Override
+        public void next() {
+            current = iter.hasNext() ? iter.next() : null;
+            if (current != null) {
+                keyBuffer = CellCursor.copy(current.getKey(), keyBuffer);
+            }
+        }
+
+        @Override
+        public boolean isValid() {
+            return current != null;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return keyBuffer.position(0);
+        }
+
+        @Override
+        public long timestamp() {
+            return current.getValue().getTimestamp();
+        }
+
+        @Override
+        public boolean isTombstone() {
+            return current.getValue().isTombstone();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            valueBuffer = CellCursor.copy(current.getValue().rawData(), valueBuffer);
+            return valueBuffer;
+        }
     }
 }
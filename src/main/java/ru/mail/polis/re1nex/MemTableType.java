@@ -0,0 +1,16 @@
+package ru.mail.polis.re1nex;
+
+/**
+ * Index of unflushed data in {@link NewDAO}.
+ */
+public enum MemTableType {
+    /**
+     * Keeps keys sorted on every write. Suits range scans of fresh data.
+     */
+    SORTED,
+    /**
+     * Hashes keys for constant time writes and point reads, sorting them only for flush and range reads.
+     * Suits cache-like workloads that rarely scan fresh data.
+     */
+    HASH
+}
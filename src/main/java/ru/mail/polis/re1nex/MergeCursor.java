@@ -0,0 +1,169 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Cursor;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * {@link Cursor} merging {@link CellCursor}s of several tables, newest cell wins and tombstones are skipped.
+ * Sources are kept in a binary heap of indices ordered like {@link Cell#comparator(KeyOrder)},
+ * ties are resolved in favour of the source listed first.
+ * The cursor keeps the {@link TableSet} of its sources alive until it is closed.
+ */
+final class MergeCursor implements Cursor {
+    private final KeyOrder order;
+    private final CellCursor[] sources;
+    private final int[] heap;
+    private final Cleaner.Cleanable pin;
+    private int size;
+    private int current = -1;
+
+    MergeCursor(
+            @NotNull final KeyOrder order,
+            @NotNull final List<CellCursor> sources,
+            @NotNull final TableSet set) {
+        this.order = order;
+        this.sources = sources.toArray(new CellCursor[0]);
+        this.heap = new int[this.sources.length];
+        this.pin = set.pin(this);
+    }
+
+    @Override
+    public void seek(@NotNull final ByteBuffer key) throws IOException {
+        size = 0;
+        for (int i = 0; i < sources.length; i++) {
+            sources[i].seek(key);
+            if (sources[i].isValid()) {
+                heap[size++] = i;
+            }
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+        settle();
+    }
+
+    @Override
+    public void next() throws IOException {
+        assert isValid();
+        sources[current].next();
+        if (sources[current].isValid()) {
+            push(current);
+        }
+        settle();
+    }
+
+    @Override
+    public boolean isValid() {
+        return current >= 0;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer key() {
+        assert isValid();
+        return sources[current].key();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer value() throws IOException {
+        assert isValid();
+        return sources[current].value();
+    }
+
+    @Override
+    public void close() {
+        current = -1;
+        size = 0;
+        pin.clean();
+    }
+
+    /**
+     * Takes the newest cell of the smallest key as current, skips its older versions and tombstones.
+     */
+    private void settle() throws IOException {
+        while (size > 0) {
+            final int index = pop();
+            final CellCursor top = sources[index];
+            while (size > 0 && sources[heap[0]].key().equals(top.key())) {
+                final CellCursor older = sources[heap[0]];
+                older.next();
+                if (older.isValid()) {
+                    siftDown(0);
+                } else {
+                    pop();
+                }
+            }
+            if (!top.isTombstone()) {
+                current = index;
+                return;
+            }
+            top.next();
+            if (top.isValid()) {
+                push(index);
+            }
+        }
+        current = -1;
+    }
+
+    private int pop() {
+        final int result = heap[0];
+        heap[0] = heap[--size];
+        siftDown(0);
+        return result;
+    }
+
+    private void push(final int source) {
+        int i = size++;
+        heap[i] = source;
+        while (i > 0) {
+            final int parent = (i - 1) / 2;
+            if (less(heap[parent], heap[i])) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(final int start) {
+        int i = start;
+        while (true) {
+            final int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            final int right = left + 1;
+            final int min = right < size && less(heap[right], heap[left]) ? right : left;
+            if (less(heap[i], heap[min])) {
+                return;
+            }
+            swap(i, min);
+            i = min;
+        }
+    }
+
+    private boolean less(final int a, final int b) {
+        final CellCursor x = sources[a];
+        final CellCursor y = sources[b];
+        final int cmp = order.compare(x.key(), y.key());
+        if (cmp != 0) {
+            return cmp < 0;
+        }
+        if (x.timestamp() != y.timestamp()) {
+            return x.timestamp() > y.timestamp();
+        }
+        return a < b;
+    }
+
+    private void swap(final int i, final int j) {
+        final int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+}
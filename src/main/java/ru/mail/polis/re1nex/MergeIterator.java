@@ -0,0 +1,57 @@
+package ru.mail.polis.re1nex;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted iterators of cells like {@link Iterators#mergeSorted(Iterable, Comparator)},
+ * but equal cells come in the order of their sources. Sources are listed from the newest,
+ * so a cell written in the same millisecond as an older one still shadows it.
+ */
+final class MergeIterator implements Iterator<Cell> {
+    private final List<PeekingIterator<Cell>> sources;
+    private final PriorityQueue<Integer> queue;
+
+    MergeIterator(
+            @NotNull final List<Iterator<Cell>> sources,
+            @NotNull final Comparator<Cell> comparator) {
+        this.sources = new ArrayList<>(sources.size());
+        for (final Iterator<Cell> source : sources) {
+            this.sources.add(Iterators.peekingIterator(source));
+        }
+        final Comparator<Integer> byCell = Comparator.comparing(i -> this.sources.get(i).peek(), comparator);
+        this.queue = new PriorityQueue<>(Math.max(1, sources.size()), byCell.thenComparing(Comparator.naturalOrder()));
+        for (int i = 0; i < this.sources.size(); i++) {
+            if (this.sources.get(i).hasNext()) {
+                queue.add(i);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public Cell next() {
+        final Integer source = queue.poll();
+        if (source == null) {
+            throw new NoSuchElementException("Merged iterators are exhausted");
+        }
+        final PeekingIterator<Cell> iter = sources.get(source);
+        final Cell result = iter.next();
+        if (iter.hasNext()) {
+            queue.add(source);
+        }
+        return result;
+    }
+}
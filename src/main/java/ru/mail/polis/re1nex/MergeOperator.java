@@ -0,0 +1,28 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Combines operands written by {@link NewDAO#merge(ByteBuffer, ByteBuffer)} with the value of the key.
+ * Operands are applied lazily by reads and compaction, and two operands of a key may be combined
+ * into one by the same call before the value is known, so the operation has to be associative.
+ */
+@FunctionalInterface
+public interface MergeOperator {
+    /**
+     * Applies operand to the value, neither buffer may be modified.
+     *
+     * @param key      - key of the value
+     * @param existing - current value or an older operand, null if the key is absent
+     * @param operand  - newer operand
+     * @return new value
+     */
+    @NotNull
+    ByteBuffer merge(
+            @NotNull ByteBuffer key,
+            @Nullable ByteBuffer existing,
+            @NotNull ByteBuffer operand);
+}
@@ -2,36 +2,92 @@ package ru.mail.polis.re1nex;
 
 import com.google.common.collect.Iterators;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Cursor;
 import ru.mail.polis.DAO;
 import ru.mail.polis.Iters;
 import ru.mail.polis.Record;
+import ru.mail.polis.RecordPublisher;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.util.Objects.requireNonNull;
 
 public class NewDAO implements DAO {
     private static final String SUFFIX = ".dat";
     private static final String TEMP = ".tmp";
+    private static final String OBSOLETE = ".obsolete";
+    private static final int SAMPLES_PER_PART = 16;
+    private static final int STREAM_PARTS_PER_THREAD = 4;
 
     private final File storage;
     private final long flushThreshold;
+    private final KeyOrder keyOrder;
+    private final RowCache rowCache;
+    private final int compactionThreads;
+    private final Durability durability;
+    private final List<Path> unsynced = new ArrayList<>();
+    //Lists of compaction inputs not deleted yet, touched by background work only
+    private final Map<File, Set<Integer>> obsolete = new HashMap<>();
+    private final BlobStore blobStore;
+    private final long blobThreshold;
+    private final double blobGarbageRatio;
+    private final int compactionTrigger;
+    private final MemTableType memTableType;
+    private final int ioThreads;
+    private final WriteController controller;
+    private final MergeOperator mergeOperator;
+    private final CompactionFilter compactionFilter;
+    private ForkJoinPool compactionPool;
+    private ExecutorService background;
+    private ExecutorService ioExecutor;
+    private final ScheduledExecutorService scrubber;
+    private volatile List<File> corrupted = Collections.emptyList();
 
     //Data
-    private MemTable memTable;
-    private NavigableMap<Integer, Table> ssTables;
+    private volatile TableSet current;
+    //Writers share memtable, switching it is exclusive
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     //State
     private int version;
@@ -42,12 +98,39 @@ public class NewDAO implements DAO {
      * @param storage        - SSTable storage directory
      * @param flushThreshold - max size of MemTable
      */
-    public NewDAO(@NotNull final File storage, final long flushThreshold) {
+    public NewDAO(@NotNull final File storage, final long flushThreshold) throws IOException {
+        this(storage, flushThreshold, Config.DEFAULT);
+    }
+
+    /**
+     * Realization of LSMDAO with custom options.
+     *
+     * @param storage        - SSTable storage directory
+     * @param flushThreshold - max size of MemTable
+     * @param config         - tunable options
+     */
+    public NewDAO(
+            @NotNull final File storage,
+            final long flushThreshold,
+            @NotNull final Config config) throws IOException {
         assert flushThreshold > 0L;
         this.flushThreshold = flushThreshold;
         this.storage = storage;
-        this.ssTables = new TreeMap<>();
-        this.memTable = new MemTable();
+        this.keyOrder = config.getKeyOrder();
+        this.compactionThreads = config.getCompactionThreads();
+        this.durability = config.getDurability();
+        this.blobStore = new BlobStore(storage);
+        this.blobThreshold = config.getBlobThreshold();
+        this.blobGarbageRatio = config.getBlobGarbageRatio();
+        this.compactionTrigger = config.getCompactionTrigger();
+        this.memTableType = config.getMemTableType();
+        this.ioThreads = config.getIoThreads();
+        this.controller = new WriteController(config);
+        this.mergeOperator = config.getMergeOperator();
+        this.compactionFilter = config.getCompactionFilter();
+        this.rowCache = config.getRowCacheBytes() > 0L ? new RowCache(config.getRowCacheBytes()) : null;
+        deleteObsolete();
+        final NavigableMap<Integer, SSTable> ssTables = new TreeMap<>();
         version = -1;
         final File[] list = storage.listFiles((dir1, name) -> name.endsWith(SUFFIX));
         assert list != null;
@@ -60,7 +143,7 @@ public class NewDAO implements DAO {
                                 final int gen =
                                         Integer.parseInt(sub);
                                 try {
-                                    ssTables.put(gen, new SSTable(f));
+                                    ssTables.put(gen, new SSTable(f, blobStore));
                                 } catch (IOException e) {
                                     throw new UncheckedIOException(e);
                                 }
@@ -71,84 +154,1358 @@ public class NewDAO implements DAO {
                         }
                 );
         version++;
+
+        final List<Integer> foreign = new ArrayList<>();
+        ssTables.forEach((gen, table) -> {
+            if (table.meta().getOrder() != keyOrder) {
+                foreign.add(gen);
+            }
+        });
+        if (!foreign.isEmpty() && !config.isMigrateKeyOrder()) {
+            for (final SSTable table : ssTables.values()) {
+                table.close();
+            }
+            throw new IllegalStateException("Tables " + foreign + " in " + storage + " are not sorted in "
+                    + keyOrder + " order, enable key order migration to rewrite them");
+        }
+        for (final int gen : foreign) {
+            migrate(ssTables, gen);
+        }
+        blobStore.deleteUnreferenced();
+        this.current = new TableSet(MemTable.create(keyOrder, memTableType), ssTables);
+        controller.update(current);
+        this.background = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "lsm-background");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long scrubInterval = config.getScrubIntervalMillis();
+        if (scrubInterval > 0L) {
+            this.scrubber = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "lsm-scrubber");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scrubber.scheduleWithFixedDelay(() -> {
+                try {
+                    scrub();
+                } catch (IOException e) {
+                    //Tables are verified again on the next run
+                }
+            }, scrubInterval, scrubInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.scrubber = null;
+        }
+    }
+
+    /**
+     * Rewrites table sorted in other order as a few tables sorted in configured one.
+     * Rows of a table have distinct keys, so its parts may go to any generations.
+     */
+    private void migrate(
+            @NotNull final NavigableMap<Integer, SSTable> ssTables,
+            final int gen) throws IOException {
+        final SSTable table = ssTables.remove(gen);
+        final NavigableMap<ByteBuffer, Value> sorted = new TreeMap<>(keyOrder);
+        long size = 0L;
+        final Iterator<Cell> cells = table.iterator(ByteBuffer.allocate(0));
+        while (cells.hasNext()) {
+            final Cell cell = cells.next();
+            sorted.put(cell.getKey(), cell.getValue());
+            size += cell.getKey().remaining() + Long.BYTES
+                    + (cell.getValue().isTombstone() ? 0 : cell.getValue().getData().remaining());
+            if (size > flushThreshold || !cells.hasNext()) {
+                ssTables.put(version, writeTable(version, Iterators.transform(sorted.entrySet().iterator(),
+                        e -> new Cell(requireNonNull(e).getKey(), e.getValue()))));
+                version++;
+                sorted.clear();
+                size = 0L;
+            }
+        }
+        syncPending();
+        table.markObsolete();
+        table.close();
     }
 
     @NotNull
     @Override
     public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
-        final Iterator<Cell> alive = Iterators.filter(cellIterator(from),
+        return range(from, null);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> range(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) throws IOException {
+        if (to != null && keyOrder.compare(from, to) > 0) {
+            return Iters.empty();
+        }
+        final TableSet set = acquire();
+        final Iterator<Record> records;
+        try {
+            records = records(set, from, to);
+        } catch (IOException | RuntimeException e) {
+            set.release();
+            throw e;
+        }
+        return new PinnedIterator<>(set, records);
+    }
+
+    @NotNull
+    private Iterator<Record> records(
+            @NotNull final TableSet set,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        final Iterator<Cell> alive = Iterators.filter(cellIterator(set, from, to),
                 cell -> !requireNonNull(cell).getValue().isTombstone());
         return Iterators.transform(alive, cell -> Record.of(requireNonNull(cell).getKey(), cell.getValue().getData()));
     }
 
-    private Iterator<Cell> cellIterator(@NotNull final ByteBuffer from) throws IOException {
-        final List<Iterator<Cell>> iters = new ArrayList<>(ssTables.size() + 1);
-        iters.add(memTable.iterator(from));
-        ssTables.descendingMap().values().forEach(table -> {
-            try {
-                iters.add(table.iterator(from));
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    /**
+     * Parallel streams cut the range at keys sampled from table indexes, so that each core merges its part.
+     */
+    @NotNull
+    @Override
+    public Stream<Record> stream(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final boolean parallel) throws IOException {
+        if (to != null && keyOrder.compare(from, to) > 0) {
+            return Stream.empty();
+        }
+        final long estimate = estimateCount(from, to);
+        final TableSet set = acquire();
+        final List<ByteBuffer> bounds = new ArrayList<>();
+        bounds.add(from);
+        try {
+            if (parallel) {
+                bounds.addAll(splitKeys(set.tables(), ForkJoinPool.getCommonPoolParallelism() * STREAM_PARTS_PER_THREAD,
+                        from, to));
             }
-        });
-        final Iterator<Cell> merged = Iterators.mergeSorted(iters, Comparator.naturalOrder());
-        return Iters.collapseEquals(merged, Cell::getKey);
+        } catch (IOException | RuntimeException e) {
+            set.release();
+            throw e;
+        }
+        final RangeSpliterator spliterator = new RangeSpliterator(set, bounds, to, estimate,
+                (start, end) -> records(set, start, end));
+        return StreamSupport.stream(spliterator, parallel).onClose(spliterator::close);
+    }
+
+    /**
+     * Takes a reference to the current version, retrying if it is being replaced.
+     */
+    @NotNull
+    private TableSet acquire() {
+        while (true) {
+            final TableSet set = current;
+            if (set.retain()) {
+                return set;
+            }
+        }
+    }
+
+    /**
+     * Publishes next version and drops the reference of the store to the previous one.
+     * Must be called under the write lock.
+     */
+    private void swap(@NotNull final TableSet next) throws IOException {
+        final TableSet previous = current;
+        current = next;
+        controller.update(next);
+        previous.release();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        if (rowCache == null) {
+            return lookup(key);
+        }
+        final ByteBuffer cached = rowCache.get(key);
+        if (cached == RowCache.ABSENT) {
+            throw new NoSuchElementException("Not found");
+        }
+        if (cached != null) {
+            return cached;
+        }
+        final long stamp = rowCache.stamp();
+        try {
+            final ByteBuffer value = lookup(key);
+            rowCache.put(key, value, stamp);
+            return value;
+        } catch (NoSuchElementException e) {
+            rowCache.put(key, null, stamp);
+            throw e;
+        }
+    }
+
+    @NotNull
+    @Override
+    public Map<ByteBuffer, ByteBuffer> getAll(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> result = new HashMap<>();
+        final List<ByteBuffer> sorted = new ArrayList<>(keys.size());
+        for (final ByteBuffer key : keys) {
+            final ByteBuffer cached = rowCache == null ? null : rowCache.get(key);
+            if (cached == null) {
+                sorted.add(key);
+            } else if (cached != RowCache.ABSENT) {
+                result.put(key, cached);
+            }
+        }
+        if (sorted.isEmpty()) {
+            return result;
+        }
+        sorted.sort(keyOrder);
+        final long stamp = rowCache == null ? 0L : rowCache.stamp();
+        final TableSet set = acquire();
+        try {
+            final Cell[] newest = lookup(set, sorted);
+            //Values in blob files are read here, so the version holding them stays pinned till then
+            for (int i = 0; i < newest.length; i++) {
+                final ByteBuffer key = sorted.get(i);
+                if (newest[i] != null && newest[i].getValue().isOperand()) {
+                    newest[i] = resolve(set, key);
+                }
+                final ByteBuffer value = newest[i] == null || newest[i].getValue().isTombstone()
+                        ? null : newest[i].getValue().getData();
+                if (value != null) {
+                    result.put(key, value);
+                }
+                if (rowCache != null) {
+                    rowCache.put(key, value, stamp);
+                }
+            }
+        } finally {
+            set.release();
+        }
+        return result;
+    }
+
+    /**
+     * Finds newest cells of sorted keys, passing each table only keys it may still have newer cells of.
+     */
+    @NotNull
+    private Cell[] lookup(
+            @NotNull final TableSet set,
+            @NotNull final List<ByteBuffer> keys) throws IOException {
+        final Comparator<Cell> comparator = Cell.comparator(keyOrder);
+        final Cell[] newest = new Cell[keys.size()];
+        final List<ByteBuffer> pending = new ArrayList<>(keys.size());
+        final int[] indexes = new int[keys.size()];
+        for (final MemTable memTable : set.memTables()) {
+            final Cell[] cells = memTable.getAll(keys);
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] != null && (newest[i] == null || comparator.compare(cells[i], newest[i]) < 0)) {
+                    newest[i] = cells[i];
+                }
+            }
+        }
+        for (final SSTable table : set.tables().descendingMap().values()) {
+            pending.clear();
+            for (int i = 0; i < newest.length; i++) {
+                //Tables holding only older cells can't change the result
+                if (newest[i] == null || newest[i].getValue().getTimestamp() < table.meta().getMaxTimestamp()) {
+                    indexes[pending.size()] = i;
+                    pending.add(keys.get(i));
+                }
+            }
+            if (pending.isEmpty()) {
+                continue;
+            }
+            final Cell[] cells = table.getAll(pending);
+            for (int j = 0; j < cells.length; j++) {
+                final int i = indexes[j];
+                if (cells[j] != null && (newest[i] == null || comparator.compare(cells[j], newest[i]) < 0)) {
+                    newest[i] = cells[j];
+                }
+            }
+        }
+        return newest;
+    }
+
+    @NotNull
+    private ByteBuffer lookup(@NotNull final ByteBuffer key) throws IOException {
+        final TableSet set = acquire();
+        try {
+            return lookup(set, key);
+        } finally {
+            set.release();
+        }
+    }
+
+    @NotNull
+    private ByteBuffer lookup(
+            @NotNull final TableSet set,
+            @NotNull final ByteBuffer key) throws IOException {
+        final Comparator<Cell> comparator = Cell.comparator(keyOrder);
+        Cell newest = null;
+        for (final MemTable memTable : set.memTables()) {
+            final Cell cell = memTable.get(key);
+            if (cell != null && (newest == null || comparator.compare(cell, newest) < 0)) {
+                newest = cell;
+            }
+        }
+        for (final SSTable table : set.tables().descendingMap().values()) {
+            //Tables holding only older cells can't change the result
+            if (newest != null && newest.getValue().getTimestamp() >= table.meta().getMaxTimestamp()) {
+                continue;
+            }
+            final Cell cell = table.get(key);
+            if (cell != null && (newest == null || comparator.compare(cell, newest) < 0)) {
+                newest = cell;
+            }
+        }
+        if (newest != null && newest.getValue().isOperand()) {
+            newest = resolve(set, key);
+        }
+        if (newest == null || newest.getValue().isTombstone()) {
+            throw new NoSuchElementException("Not found");
+        }
+        return newest.getValue().getData();
+    }
+
+    /**
+     * Folds operands of the key over its value, reading cells of all sources
+     * since older tables may hold newer cells of ingested keys.
+     */
+    @NotNull
+    private Cell resolve(
+            @NotNull final TableSet set,
+            @NotNull final ByteBuffer key) throws IOException {
+        final List<Cell> cells = new ArrayList<>();
+        for (final MemTable memTable : set.memTables()) {
+            final Cell cell = memTable.get(key);
+            if (cell != null) {
+                cells.add(cell);
+            }
+        }
+        for (final SSTable table : set.tables().descendingMap().values()) {
+            final Cell cell = table.get(key);
+            if (cell != null) {
+                cells.add(cell);
+            }
+        }
+        //Stable sort keeps sources in order for cells of the same time
+        cells.sort(Cell.comparator(keyOrder));
+        return new Cell(key, Operands.fold(mergeOperator, key, cells));
+    }
+
+    @NotNull
+    @Override
+    public Cursor cursor() throws IOException {
+        if (mergeOperator != null) {
+            //Cursors compare cells in place, operands are folded by iterators
+            return DAO.super.cursor();
+        }
+        final TableSet set = acquire();
+        final List<CellCursor> cursors = new ArrayList<>(set.tables().size() + 1);
+        for (final MemTable memTable : set.memTables()) {
+            cursors.add(memTable.cursor());
+        }
+        for (final SSTable table : set.tables().descendingMap().values()) {
+            cursors.add(table.cursor());
+        }
+        return new MergeCursor(keyOrder, cursors, set);
+    }
+
+    private Iterator<Cell> cellIterator(
+            @NotNull final TableSet set,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return merge(set.memTables(), set.tables().descendingMap().values(), from, to, false);
+    }
+
+    /**
+     * Merges newest cells of memtables and tables listed from the newest, values are not read if keysOnly.
+     * Operands are folded unless keysOnly, any of them makes the key live anyway.
+     */
+    private Iterator<Cell> merge(
+            @NotNull final List<MemTable> memTables,
+            @NotNull final Collection<SSTable> tables,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final boolean keysOnly) throws IOException {
+        final List<Iterator<Cell>> iters = new ArrayList<>(memTables.size() + tables.size());
+        for (final MemTable memTable : memTables) {
+            iters.add(memTable.iterator(from, to));
+        }
+        for (final SSTable table : tables) {
+            if (table.meta().overlaps(from, to)) {
+                iters.add(keysOnly ? table.keys(from, to) : table.iterator(from, to));
+            }
+        }
+        final Iterator<Cell> merged = new MergeIterator(iters, Cell.comparator(keyOrder));
+        return keysOnly ? Iters.collapseEquals(merged, Cell::getKey) : Operands.resolve(merged, mergeOperator);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<ByteBuffer> keys(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) throws IOException {
+        if (to != null && keyOrder.compare(from, to) > 0) {
+            return Iters.empty();
+        }
+        final TableSet set = acquire();
+        final Iterator<Cell> alive;
+        try {
+            alive = Iterators.filter(merge(set.memTables(), set.tables().descendingMap().values(), from, to, true),
+                    cell -> !requireNonNull(cell).getValue().isTombstone());
+        } catch (IOException | RuntimeException e) {
+            set.release();
+            throw e;
+        }
+        return new PinnedIterator<>(set, Iterators.transform(alive, Cell::getKey));
+    }
+
+    /**
+     * Counts live keys in [from, to). A table without tombstones whose key range meets no other source
+     * contributes its rows found by binary search, or all rows if it lies within the range.
+     * Keys of the other sources are merged without reading values.
+     */
+    @Override
+    public long count(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) throws IOException {
+        if (to != null && keyOrder.compare(from, to) > 0) {
+            return 0L;
+        }
+        final TableSet set = acquire();
+        try {
+            final List<TableMeta> metas = new ArrayList<>(set.tables().size() + 1);
+            for (final MemTable memTable : set.memTables()) {
+                metas.add(memTable.meta());
+            }
+            for (final SSTable table : set.tables().values()) {
+                metas.add(table.meta());
+            }
+            long count = 0L;
+            final List<SSTable> merged = new ArrayList<>(set.tables().size());
+            for (final SSTable table : set.tables().descendingMap().values()) {
+                final TableMeta meta = table.meta();
+                if (!meta.overlaps(from, to)) {
+                    continue;
+                }
+                if (meta.getTombstones() == 0L && metas.stream().noneMatch(m -> m != meta && m.overlaps(meta))) {
+                    count += meta.within(from, to) ? table.rows() : table.count(from, to);
+                } else {
+                    merged.add(table);
+                }
+            }
+            final Iterator<Cell> cells = merge(set.memTables(), merged, from, to, true);
+            while (cells.hasNext()) {
+                if (!cells.next().getValue().isTombstone()) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            set.release();
+        }
+    }
+
+    /**
+     * Sums row counts of tables estimated from their sampled keys, and memtable counters
+     * taken whole if the memtable key range lies within the range and half if it only overlaps.
+     */
+    @Override
+    public long estimateCount(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) throws IOException {
+        if (to != null && keyOrder.compare(from, to) > 0) {
+            return 0L;
+        }
+        final TableSet set = acquire();
+        try {
+            long count = 0L;
+            for (final MemTable memTable : set.memTables()) {
+                count += (long) (memTable.size() * memTableShare(memTable, from, to));
+            }
+            for (final SSTable table : set.tables().values()) {
+                count += table.estimateCount(from, to);
+            }
+            return count;
+        } finally {
+            set.release();
+        }
+    }
+
+    /**
+     * Sums sizes of rows like {@link #estimateCount(ByteBuffer, ByteBuffer)}.
+     */
+    @Override
+    public long estimateSize(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) throws IOException {
+        if (to != null && keyOrder.compare(from, to) > 0) {
+            return 0L;
+        }
+        final TableSet set = acquire();
+        try {
+            long size = 0L;
+            for (final MemTable memTable : set.memTables()) {
+                size += (long) (memTable.sizeInBytes() * memTableShare(memTable, from, to));
+            }
+            for (final SSTable table : set.tables().values()) {
+                size += table.estimateSize(from, to);
+            }
+            return size;
+        } finally {
+            set.release();
+        }
+    }
+
+    private static double memTableShare(
+            @NotNull final MemTable memTable,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        final TableMeta meta = memTable.meta();
+        if (meta.isEmpty()) {
+            return 0.0;
+        }
+        if (meta.within(from, to)) {
+            return 1.0;
+        }
+        return meta.overlaps(from, to) ? 0.5 : 0.0;
     }
 
     @Override
     public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
-        memTable.upsert(key, value);
+        controller.beforeWrite();
+        final MemTable memTable;
+        lock.readLock().lock();
+        try {
+            memTable = current.memTable();
+            memTable.upsert(key, value);
+            if (rowCache != null) {
+                rowCache.update(key, value);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
         if (memTable.sizeInBytes() > flushThreshold) {
-            flush();
+            freeze(memTable);
         }
     }
 
     @Override
     public void remove(@NotNull final ByteBuffer key) throws IOException {
-        memTable.remove(key);
+        controller.beforeWrite();
+        final MemTable memTable;
+        lock.readLock().lock();
+        try {
+            memTable = current.memTable();
+            memTable.remove(key);
+            if (rowCache != null) {
+                rowCache.update(key, null);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (memTable.sizeInBytes() > flushThreshold) {
+            freeze(memTable);
+        }
+    }
+
+    /**
+     * Writes the value if the key has the expected one, atomically with respect to all writes of the key.
+     * The current value is compared with the memtable cell it was read with, and the write is retried
+     * if another one replaced that cell. The version is held under the read lock, so older sources stay put.
+     *
+     * @param expected - value the key must have, null if it must be absent
+     * @param value    - value to write, null to remove the key
+     * @return whether the value was written
+     */
+    public boolean compareAndSet(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer expected,
+            @Nullable final ByteBuffer value) throws IOException {
+        controller.beforeWrite();
+        final MemTable memTable;
+        lock.readLock().lock();
+        try {
+            final TableSet set = current;
+            memTable = set.memTable();
+            while (true) {
+                final Cell cell = memTable.get(key);
+                final Value seen = cell == null ? null : cell.getValue();
+                if (!Objects.equals(expected, present(set, key, seen))) {
+                    return false;
+                }
+                if (memTable.upsertIf(key, seen, value)) {
+                    break;
+                }
+            }
+            if (rowCache != null) {
+                rowCache.update(key, value);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (memTable.sizeInBytes() > flushThreshold) {
+            freeze(memTable);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the value if the key is absent like {@link #compareAndSet(ByteBuffer, ByteBuffer, ByteBuffer)}.
+     *
+     * @return whether the value was written
+     */
+    public boolean putIfAbsent(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        return compareAndSet(key, null, value);
+    }
+
+    /**
+     * Current value of the key or null, taken from its cell of the current memtable if that one decides it.
+     */
+    @Nullable
+    private ByteBuffer present(
+            @NotNull final TableSet set,
+            @NotNull final ByteBuffer key,
+            @Nullable final Value seen) throws IOException {
+        if (seen != null && !seen.isOperand()) {
+            return seen.isTombstone() ? null : seen.getData();
+        }
+        try {
+            return lookup(set, key);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes operand of the configured {@link MergeOperator} without reading the value of the key.
+     * Operands are applied by reads and folded into values by compaction.
+     */
+    public void merge(@NotNull final ByteBuffer key, @NotNull final ByteBuffer operand) throws IOException {
+        if (mergeOperator == null) {
+            throw new IllegalStateException("No merge operator configured");
+        }
+        controller.beforeWrite();
+        final MemTable memTable;
+        lock.readLock().lock();
+        try {
+            memTable = current.memTable();
+            memTable.merge(key, operand, mergeOperator);
+            if (rowCache != null) {
+                rowCache.invalidate(key);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
         if (memTable.sizeInBytes() > flushThreshold) {
-            flush();
+            freeze(memTable);
+        }
+    }
+
+    /**
+     * Puts the memtable in the flush queue and gives writers a fresh one.
+     *
+     * @param full - memtable to freeze, not frozen yet by another writer, or null for the current one
+     */
+    private void freeze(@Nullable final MemTable full) throws IOException {
+        lock.writeLock().lock();
+        try {
+            final MemTable memTable = current.memTable();
+            if (full != null && full != memTable || memTable.size() == 0) {
+                return;
+            }
+            swap(current.frozen(MemTable.create(keyOrder, memTableType)));
+        } finally {
+            lock.writeLock().unlock();
         }
+        background.execute(() -> {
+            try {
+                flushOldest();
+            } catch (IOException | RuntimeException e) {
+                controller.fail(e);
+            }
+        });
     }
 
-    private void flush() throws IOException {
-        //Dump memTable
-        final File file = new File(storage, version + TEMP);
-        SSTable.serialize(file, memTable.iterator(ByteBuffer.allocate(0)));
-        final File dst = new File(storage, version + SUFFIX);
+    /**
+     * Writes the oldest frozen memtable to a table in background and compacts tables if there are enough.
+     * Flushes and compactions run one at a time in order, so generations grow with data age.
+     */
+    private void flushOldest() throws IOException {
+        if (controller.failure() != null) {
+            return;
+        }
+        final List<MemTable> flushing = current.flushing();
+        final MemTable memTable = flushing.get(flushing.size() - 1);
+        final int gen = version++;
+        final SSTable table = writeTable(gen, memTable.iterator(ByteBuffer.allocate(0)));
+        lock.writeLock().lock();
+        try {
+            swap(current.flushed(memTable, gen, table));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compactionTrigger > 0 && current.overlapping() >= compactionTrigger) {
+            compactTables(compactionTrigger - 1);
+        }
+    }
+
+    /**
+     * Waits for background flushes and compactions queued so far.
+     */
+    private void awaitBackground(@NotNull final Callable<Void> task) throws IOException {
+        try {
+            background.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for background work");
+        } catch (ExecutionException e) {
+            throw new IOException("Background work failed", e.getCause());
+        }
+        final Throwable failure = controller.failure();
+        if (failure != null) {
+            throw new IOException("Background flush or compaction failed", failure);
+        }
+    }
+
+    /**
+     * Completes inline on row cache and memtable hits, reads tables on the I/O executor.
+     */
+    @NotNull
+    @Override
+    public CompletableFuture<ByteBuffer> getAsync(@NotNull final ByteBuffer key) {
+        final ByteBuffer cached = rowCache == null ? null : rowCache.get(key);
+        if (cached == RowCache.ABSENT) {
+            return CompletableFuture.failedFuture(new NoSuchElementException("Not found"));
+        }
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        Cell hit = null;
+        final TableSet set = acquire();
+        try {
+            try {
+                //Memtables are newer than tables and the current one is newer than frozen ones
+                for (final MemTable memTable : set.memTables()) {
+                    hit = memTable.get(key);
+                    if (hit != null) {
+                        break;
+                    }
+                }
+            } finally {
+                set.release();
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (hit == null || hit.getValue().isOperand()) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return get(key);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, ioExecutor());
+        }
+        return hit.getValue().isTombstone()
+                ? CompletableFuture.failedFuture(new NoSuchElementException("Not found"))
+                : CompletableFuture.completedFuture(hit.getValue().getData());
+    }
+
+    /**
+     * Writes inline unless the write stall may hold it, then waits on the I/O executor.
+     */
+    @NotNull
+    @Override
+    public CompletableFuture<Void> upsertAsync(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        return controller.mayBlock()
+                ? CompletableFuture.runAsync(() -> write(() -> upsert(key, value)), ioExecutor())
+                : DAO.super.upsertAsync(key, value);
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<Void> removeAsync(@NotNull final ByteBuffer key) {
+        return controller.mayBlock()
+                ? CompletableFuture.runAsync(() -> write(() -> remove(key)), ioExecutor())
+                : DAO.super.removeAsync(key);
+    }
+
+    /**
+     * Reads records on the I/O executor as far as subscribers request them.
+     */
+    @NotNull
+    @Override
+    public Flow.Publisher<Record> rangeAsync(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        return new RecordPublisher(() -> stream(from, to, false), ioExecutor());
+    }
+
+    private static void write(@NotNull final Write write) {
+        try {
+            write.run();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Write {
+        void run() throws IOException;
+    }
+
+    @NotNull
+    private synchronized ExecutorService ioExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = Executors.newFixedThreadPool(ioThreads, r -> {
+                final Thread thread = new Thread(r, "lsm-io");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return ioExecutor;
+    }
+
+    /**
+     * Reads every table in bulk and checks it against its checksums, tables written before checksums pass.
+     * Corrupted tables are left in place, they are only reported here and by {@link #corruptedTables()}.
+     *
+     * @return files of tables failing the check
+     */
+    @NotNull
+    public List<File> scrub() throws IOException {
+        final List<File> result = new ArrayList<>();
+        final TableSet set = acquire();
+        try {
+            for (final SSTable table : set.tables().values()) {
+                try {
+                    table.verify();
+                } catch (IOException e) {
+                    result.add(table.file());
+                }
+            }
+        } finally {
+            set.release();
+        }
+        corrupted = Collections.unmodifiableList(result);
+        return corrupted;
+    }
+
+    /**
+     * Tables failing the last check by {@link #scrub()} or the background scrubber.
+     */
+    @NotNull
+    public List<File> corruptedTables() {
+        return corrupted;
+    }
+
+    /**
+     * State of write back-pressure.
+     */
+    @NotNull
+    public WriteStats writeStats() {
+        return controller.stats();
+    }
+
+    @NotNull
+    private SSTable writeTable(
+            final int gen,
+            @NotNull final Iterator<Cell> cells) throws IOException {
+        final File file = new File(storage, gen + TEMP);
+        try (BlobLog blobs = blobLog(gen, Collections.emptySet())) {
+            SSTable.serialize(file, cells, keyOrder, durability == Durability.SYNC, blobs);
+        }
+        final File dst = new File(storage, gen + SUFFIX);
         Files.move(file.toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        afterMove(dst.toPath());
+        return new SSTable(dst, blobStore);
+    }
 
-        //Switch
-        memTable = new MemTable();
-        ssTables.put(version, new SSTable(dst));
-        version++;
+    /**
+     * Blob file of a new table is written in place: until the table is renamed nothing refers to it,
+     * and it is deleted on open after a crash. It is forced before the table is renamed if durability asks.
+     */
+    @NotNull
+    private BlobLog blobLog(
+            final int gen,
+            @NotNull final Set<Integer> relocate) {
+        return new BlobLog(blobStore.file(gen), gen, blobThreshold, relocate, durability == Durability.SYNC);
+    }
+
+    /**
+     * Handles table just renamed into place: syncs directory or remembers the table till the next batch.
+     */
+    private void afterMove(@NotNull final Path table) throws IOException {
+        if (durability == Durability.SYNC) {
+            force(storage.toPath());
+        } else if (durability == Durability.DEFERRED) {
+            unsynced.add(table);
+            deferBlob(table);
+        }
+    }
+
+    /**
+     * Remembers blob file of the table if it has one.
+     */
+    private void deferBlob(@NotNull final Path table) {
+        final String name = table.getFileName().toString();
+        final File blob = blobStore.file(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())));
+        if (blob.exists()) {
+            unsynced.add(blob.toPath());
+        }
+    }
+
+    /**
+     * Forces tables written since the last batch and then the directory with their names.
+     */
+    private void syncPending() throws IOException {
+        if (unsynced.isEmpty()) {
+            return;
+        }
+        for (final Path table : unsynced) {
+            force(table);
+        }
+        force(storage.toPath());
+        unsynced.clear();
+    }
+
+    private static void force(@NotNull final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
     }
 
     @Override
     public void close() throws IOException {
-        if (memTable.size() > 0) {
-            flush();
+        if (rowCache != null) {
+            rowCache.clear();
         }
-        for (int i = 0; i < ssTables.size(); i++) {
-            ssTables.get(i).close();
+        IOException failure = null;
+        try {
+            freeze(null);
+            awaitBackground(() -> null);
+        } catch (IOException e) {
+            failure = e;
+        }
+        background.shutdown();
+        //A running check holds its own references to tables, so it is not interrupted
+        if (scrubber != null) {
+            scrubber.shutdown();
+        }
+        syncPending();
+        //Tables still read by live iterators are closed when those are done
+        current.release();
+        if (compactionPool != null) {
+            compactionPool.shutdown();
+        }
+        synchronized (this) {
+            if (ioExecutor != null) {
+                ioExecutor.shutdown();
+            }
+        }
+        if (failure != null) {
+            throw failure;
         }
-
     }
 
+    /**
+     * Merges all data into new tables, one per disjoint key range, in parallel.
+     * Outputs get fresh generations and inputs are deleted only after all outputs are in place
+     * and nobody reads them. Outputs lack tombstones and filtered keys, so an input left by a crash
+     * could bring them back: inputs are listed in a file before the swap and deleted on open.
+     */
     @Override
     public void compact() throws IOException {
-        final Iterator<Cell> iterator = cellIterator(ByteBuffer.allocate(0));
-        final File tmp = new File(storage, version + TEMP);
-        SSTable.serialize(tmp, iterator);
-        for (int i = 0; i < version; i++) {
-            Files.delete(new File(storage, i + SUFFIX).toPath());
-        }
-        version = 0;
-        final File file = new File(storage, version + SUFFIX);
-        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
-        ssTables = new TreeMap<>();
-        ssTables.put(version, new SSTable(file));
-        memTable = new MemTable();
-        version++;
+        freeze(null);
+        awaitBackground(() -> {
+            compactTables(compactionThreads);
+            return null;
+        });
+    }
+
+    /**
+     * Adds tables written by {@link TableBuilder} to the store in one version, each under a fresh generation.
+     * Files are moved into the storage, so they should be on its file system, or copied otherwise.
+     * Rows keep timestamps of the build, so they shadow values written before they were added to the builder.
+     *
+     * @param files - tables sorted in the order of the store without blob files
+     */
+    public void ingest(@NotNull final List<File> files) throws IOException {
+        for (final File file : files) {
+            final SSTable table = new SSTable(file, blobStore);
+            try {
+                if (table.meta().getOrder() != keyOrder) {
+                    throw new IllegalArgumentException("Table " + file + " is not sorted in " + keyOrder + " order");
+                }
+                if (!table.meta().getBlobs().isEmpty()) {
+                    throw new IllegalArgumentException("Table " + file + " refers to blob files");
+                }
+            } finally {
+                table.close();
+            }
+        }
+        //Writes made before are flushed first, so they are older by generation too
+        freeze(null);
+        awaitBackground(() -> {
+            ingestTables(files);
+            return null;
+        });
+    }
+
+    /**
+     * Moves tables in as temporary files first, so a failure leaves none of them in the store.
+     * Runs in background.
+     */
+    private void ingestTables(@NotNull final List<File> files) throws IOException {
+        final int first = version;
+        version += files.size();
+        int moved = 0;
+        try {
+            for (; moved < files.size(); moved++) {
+                final Path tmp = new File(storage, (first + moved) + TEMP).toPath();
+                try {
+                    Files.move(files.get(moved).toPath(), tmp, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.copy(files.get(moved).toPath(), tmp);
+                    Files.delete(files.get(moved).toPath());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (int i = 0; i < moved; i++) {
+                Files.move(new File(storage, (first + i) + TEMP).toPath(), files.get(i).toPath());
+            }
+            throw e;
+        }
+
+        //Commit
+        final NavigableMap<Integer, SSTable> ingested = new TreeMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            final int gen = first + i;
+            final File dst = new File(storage, gen + SUFFIX);
+            Files.move(new File(storage, gen + TEMP).toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            afterMove(dst.toPath());
+            ingested.put(gen, new SSTable(dst, blobStore));
+        }
+        syncPending();
+        lock.writeLock().lock();
+        try {
+            swap(current.compacted(Collections.emptySet(), ingested));
+            //Readers stamped after this see the new version
+            if (rowCache != null) {
+                rowCache.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compactionTrigger > 0 && current.overlapping() >= compactionTrigger) {
+            compactTables(compactionTrigger - 1);
+        }
+    }
+
+    /**
+     * Compacts all tables, memtables are left for flush. Runs in background.
+     */
+    private void compactTables(final int maxPartitions) throws IOException {
+        final TableSet set = acquire();
+        try {
+            if (!set.tables().isEmpty()) {
+                compact(set, maxPartitions);
+            }
+        } finally {
+            set.release();
+        }
+    }
+
+    private void compact(
+            @NotNull final TableSet set,
+            final int maxPartitions) throws IOException {
+        dropDeletedLists();
+        final Set<Integer> relocate = blobsToCollect(set);
+        final NavigableMap<Integer, SSTable> inputs = toRewrite(set, relocate);
+        if (inputs.isEmpty()) {
+            return;
+        }
+        final List<ByteBuffer> bounds = splitKeys(inputs, compactionPartitions(inputs, maxPartitions),
+                ByteBuffer.allocate(0), null);
+        final int first = version;
+        version += bounds.size() + 1;
+        final List<Callable<Boolean>> tasks = new ArrayList<>(bounds.size() + 1);
+        for (int i = 0; i <= bounds.size(); i++) {
+            final ByteBuffer from = i == 0 ? ByteBuffer.allocate(0) : bounds.get(i - 1);
+            final ByteBuffer to = i == bounds.size() ? null : bounds.get(i);
+            final int gen = first + i;
+            final File tmp = new File(storage, gen + TEMP);
+            tasks.add(() -> {
+                //Every table overlapping an input is an input too, so tombstones have nothing left to hide
+                final Iterator<Cell> cells = filter(Iterators.filter(
+                        merge(Collections.emptyList(), inputs.descendingMap().values(), from, to, false),
+                        cell -> !requireNonNull(cell).getValue().isTombstone()));
+                if (!cells.hasNext()) {
+                    return false;
+                }
+                try (BlobLog blobs = blobLog(gen, relocate)) {
+                    SSTable.serialize(tmp, cells, keyOrder, durability == Durability.SYNC, blobs);
+                }
+                return true;
+            });
+        }
+        final List<Boolean> written = runAll(tasks, first);
+
+        //Commit
+        final NavigableMap<Integer, SSTable> compacted = new TreeMap<>();
+        for (int i = 0; i < written.size(); i++) {
+            if (written.get(i)) {
+                final int gen = first + i;
+                final File dst = new File(storage, gen + SUFFIX);
+                Files.move(new File(storage, gen + TEMP).toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                compacted.put(gen, new SSTable(dst, blobStore));
+                if (durability == Durability.DEFERRED) {
+                    unsynced.add(dst.toPath());
+                    deferBlob(dst.toPath());
+                }
+            }
+        }
+        //Outputs must be durable before inputs go away
+        if (durability == Durability.SYNC) {
+            force(storage.toPath());
+        }
+        syncPending();
+        listObsolete(first, inputs.keySet());
+        lock.writeLock().lock();
+        try {
+            swap(current.compacted(inputs.keySet(), compacted));
+            //The filter may have dropped or rewritten cached values
+            if (rowCache != null && compactionFilter != null) {
+                rowCache.clear();
+            }
+            final Set<Integer> referenced = new HashSet<>();
+            for (final SSTable table : current.tables().values()) {
+                referenced.addAll(table.meta().getBlobs().keySet());
+            }
+            for (final SSTable table : inputs.values()) {
+                table.markObsolete();
+                for (final int blob : table.meta().getBlobs().keySet()) {
+                    if (!referenced.contains(blob)) {
+                        blobStore.markObsolete(blob);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Durably lists compaction inputs before they are replaced by outputs, under the first output generation.
+     */
+    private void listObsolete(
+            final int gen,
+            @NotNull final Set<Integer> inputs) throws IOException {
+        final ByteBuffer gens = ByteBuffer.allocate(inputs.size() * Integer.BYTES);
+        for (final int input : inputs) {
+            gens.putInt(input);
+        }
+        gens.flip();
+        final File tmp = new File(storage, gen + OBSOLETE + TEMP);
+        try (FileChannel channel = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (gens.hasRemaining()) {
+                channel.write(gens);
+            }
+            if (durability != Durability.NONE) {
+                channel.force(true);
+            }
+        }
+        final File list = new File(storage, gen + OBSOLETE);
+        Files.move(tmp.toPath(), list.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        if (durability != Durability.NONE) {
+            force(storage.toPath());
+        }
+        obsolete.put(list, inputs);
+    }
+
+    /**
+     * Deletes lists whose tables are all gone.
+     */
+    private void dropDeletedLists() throws IOException {
+        final Iterator<Map.Entry<File, Set<Integer>>> lists = obsolete.entrySet().iterator();
+        while (lists.hasNext()) {
+            final Map.Entry<File, Set<Integer>> list = lists.next();
+            if (list.getValue().stream().noneMatch(gen -> new File(storage, gen + SUFFIX).exists())) {
+                Files.deleteIfExists(list.getKey().toPath());
+                lists.remove();
+            }
+        }
+    }
+
+    /**
+     * Deletes compaction inputs a crash left behind and then the lists naming them.
+     */
+    private void deleteObsolete() throws IOException {
+        final File[] lists = storage.listFiles((dir, name) -> name.endsWith(OBSOLETE));
+        if (lists == null || lists.length == 0) {
+            return;
+        }
+        for (final File list : lists) {
+            final ByteBuffer gens = ByteBuffer.wrap(Files.readAllBytes(list.toPath()));
+            while (gens.remaining() >= Integer.BYTES) {
+                Files.deleteIfExists(new File(storage, gens.getInt() + SUFFIX).toPath());
+            }
+        }
+        //Tables must be gone for good before the lists naming them
+        force(storage.toPath());
+        for (final File list : lists) {
+            Files.delete(list.toPath());
+        }
+    }
+
+    /**
+     * Passes cells through the compaction filter, dropping keys it rejects. Compaction inputs are
+     * all tables holding the keys, so nothing older shows up in place of a dropped key.
+     */
+    @NotNull
+    private Iterator<Cell> filter(@NotNull final Iterator<Cell> cells) {
+        if (compactionFilter == null) {
+            return cells;
+        }
+        final Iterator<Cell> filtered = Iterators.transform(cells, cell -> {
+            final Value value = requireNonNull(cell).getValue();
+            final ByteBuffer data = value.getData();
+            final ByteBuffer result = compactionFilter.filter(cell.getKey(), data);
+            if (result == null) {
+                return null;
+            }
+            return result == data ? cell : new Cell(cell.getKey(), new Value(value.getTimestamp(), result));
+        });
+        return Iterators.filter(filtered, Objects::nonNull);
+    }
+
+    /**
+     * Picks tables compaction has to rewrite. Tables without tombstones or values in collected blob files,
+     * whose key ranges overlap no other table, have nothing to drop and are left as they are.
+     * Any table overlapping a picked one is picked too, which lets compaction drop tombstones.
+     * Nothing is rewritten if only one table is left and it has nothing to drop either.
+     * All tables are rewritten if operands or the compaction filter may change them.
+     */
+    @NotNull
+    private NavigableMap<Integer, SSTable> toRewrite(
+            @NotNull final TableSet set,
+            @NotNull final Set<Integer> relocate) {
+        final NavigableMap<Integer, SSTable> result = new TreeMap<>();
+        for (final Map.Entry<Integer, SSTable> entry : set.tables().entrySet()) {
+            final TableMeta meta = entry.getValue().meta();
+            if (mergeOperator != null || compactionFilter != null
+                    || meta.getTombstones() != 0L
+                    || !Collections.disjoint(meta.getBlobs().keySet(), relocate)
+                    || set.tables().values().stream().anyMatch(t -> t != entry.getValue() && t.meta().overlaps(meta))) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Picks blob files where the share of bytes referenced by tables dropped to the garbage ratio,
+     * so compaction copies their live values and they go away with the inputs.
+     * Tables may still reference overwritten values, so the share is never underestimated.
+     */
+    @NotNull
+    private Set<Integer> blobsToCollect(@NotNull final TableSet set) {
+        final Map<Integer, Long> live = new HashMap<>();
+        for (final SSTable table : set.tables().values()) {
+            table.meta().getBlobs().forEach((gen, bytes) -> live.merge(gen, bytes, Long::sum));
+        }
+        final Set<Integer> result = new HashSet<>();
+        live.forEach((gen, bytes) -> {
+            final long size = blobStore.size(gen);
+            if (size > 0L && bytes <= size * (1.0 - blobGarbageRatio)) {
+                result.add(gen);
+            }
+        });
+        return result;
+    }
+
+    private int compactionPartitions(
+            @NotNull final NavigableMap<Integer, SSTable> tables,
+            final int maxPartitions) {
+        long size = 0L;
+        for (final SSTable table : tables.values()) {
+            size += table.sizeInBytes();
+        }
+        return (int) Math.max(1L, Math.min(maxPartitions, size / flushThreshold));
+    }
+
+    /**
+     * Picks split keys within (from, to) dividing rows of all tables in the range into parts of about the same size.
+     * Each table contributes evenly spaced keys of the range from its offsets index weighted by rows they stand for.
+     */
+    @NotNull
+    private List<ByteBuffer> splitKeys(
+            @NotNull final NavigableMap<Integer, SSTable> tables,
+            final int parts,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        if (parts <= 1) {
+            return Collections.emptyList();
+        }
+        final NavigableMap<ByteBuffer, Long> weights = new TreeMap<>(keyOrder);
+        long total = 0L;
+        for (final SSTable table : tables.values()) {
+            final int first = from.hasRemaining() ? table.rank(from) : 0;
+            final int rows = (to == null ? table.rows() : table.rank(to)) - first;
+            final int samples = Math.min(rows, parts * SAMPLES_PER_PART);
+            for (int i = 0; i < samples; i++) {
+                final long weight = rows / samples;
+                weights.merge(table.keyPrefix(first + (int) ((long) i * rows / samples), TableMeta.MAX_BOUND_SIZE),
+                        weight, Long::sum);
+                total += weight;
+            }
+        }
+        final List<ByteBuffer> bounds = new ArrayList<>(parts - 1);
+        long seen = 0L;
+        for (final Map.Entry<ByteBuffer, Long> entry : weights.entrySet()) {
+            //Prefixes of keys in the range may fall out of it
+            final boolean within = keyOrder.compare(entry.getKey(), from) > 0
+                    && (to == null || keyOrder.compare(entry.getKey(), to) < 0);
+            if (seen >= total * (bounds.size() + 1) / parts && within) {
+                bounds.add(entry.getKey());
+                if (bounds.size() == parts - 1) {
+                    break;
+                }
+            }
+            seen += entry.getValue();
+        }
+        return bounds;
+    }
+
+    /**
+     * Runs compaction tasks on the pool, removing temporary files of task generations on failure.
+     */
+    @NotNull
+    private List<Boolean> runAll(
+            @NotNull final List<Callable<Boolean>> tasks,
+            final int first) throws IOException {
+        final List<Boolean> result = new ArrayList<>(tasks.size());
+        try {
+            if (tasks.size() == 1) {
+                result.add(tasks.get(0).call());
+                return result;
+            }
+            for (final Future<Boolean> future : compactionPool().invokeAll(tasks)) {
+                result.add(future.get());
+            }
+            return result;
+        } catch (Exception e) {
+            for (int i = 0; i < tasks.size(); i++) {
+                Files.deleteIfExists(new File(storage, (first + i) + TEMP).toPath());
+                Files.deleteIfExists(blobStore.file(first + i).toPath());
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Compaction failed", e instanceof ExecutionException ? e.getCause() : e);
+        }
+    }
+
+    @NotNull
+    private ForkJoinPool compactionPool() {
+        if (compactionPool == null) {
+            compactionPool = new ForkJoinPool(compactionThreads);
+        }
+        return compactionPool;
     }
 }
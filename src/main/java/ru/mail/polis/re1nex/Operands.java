@@ -0,0 +1,107 @@
+package ru.mail.polis.re1nex;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Applies operands of {@link MergeOperator} to values they were written over.
+ */
+final class Operands {
+    private Operands() {
+        // Not instantiable
+    }
+
+    /**
+     * Combines a new operand with the value of the key in the same memtable, so it keeps one cell per key.
+     * An operand written over a value or tombstone makes a value, over another operand it makes an operand.
+     */
+    @NotNull
+    static Value combine(
+            @NotNull final MergeOperator operator,
+            @NotNull final ByteBuffer key,
+            @Nullable final Value previous,
+            @NotNull final ByteBuffer operand,
+            final long timestamp) {
+        if (previous == null) {
+            return Value.operand(timestamp, operand);
+        }
+        if (previous.isTombstone()) {
+            return new Value(timestamp, operator.merge(key, null, operand));
+        }
+        final ByteBuffer merged = operator.merge(key, previous.getData(), operand);
+        return previous.isOperand() ? Value.operand(timestamp, merged) : new Value(timestamp, merged);
+    }
+
+    /**
+     * Folds cells of one key from the newest one until a value or tombstone, or over nothing if there is none.
+     *
+     * @param cells - all cells of the key from the newest to the oldest
+     */
+    @NotNull
+    static Value fold(
+            @Nullable final MergeOperator operator,
+            @NotNull final ByteBuffer key,
+            @NotNull final List<Cell> cells) {
+        final Value newest = cells.get(0).getValue();
+        if (!newest.isOperand()) {
+            return newest;
+        }
+        if (operator == null) {
+            throw new IllegalStateException("Merge operands need a merge operator");
+        }
+        int base = 0;
+        while (base < cells.size() && cells.get(base).getValue().isOperand()) {
+            base++;
+        }
+        ByteBuffer result = base == cells.size() || cells.get(base).getValue().isTombstone()
+                ? null : cells.get(base).getValue().getData();
+        for (int i = base - 1; i >= 0; i--) {
+            result = operator.merge(key, result, cells.get(i).getValue().getData());
+        }
+        return new Value(newest.getTimestamp(), result);
+    }
+
+    /**
+     * Collapses merged cells to one per key like {@link ru.mail.polis.Iters#collapseEquals(Iterator)},
+     * folding operands over older cells of the key.
+     *
+     * @param merged - cells of all sources ordered by {@link Cell#comparator(KeyOrder)}
+     */
+    @NotNull
+    static Iterator<Cell> resolve(
+            @NotNull final Iterator<Cell> merged,
+            @Nullable final MergeOperator operator) {
+        final PeekingIterator<Cell> cells = Iterators.peekingIterator(merged);
+        final List<Cell> chain = new ArrayList<>();
+        return new Iterator<Cell>() {
+            @Override
+            public boolean hasNext() {
+                return cells.hasNext();
+            }
+
+            @Override
+            public Cell next() {
+                final Cell first = cells.next();
+                final ByteBuffer key = first.getKey();
+                chain.clear();
+                chain.add(first);
+                boolean open = first.getValue().isOperand();
+                while (cells.hasNext() && cells.peek().getKey().equals(key)) {
+                    final Cell older = cells.next();
+                    if (open) {
+                        chain.add(older);
+                        open = older.getValue().isOperand();
+                    }
+                }
+                return first.getValue().isOperand() ? new Cell(key, fold(operator, key, chain)) : first;
+            }
+        };
+    }
+}
@@ -0,0 +1,35 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.Cleaner;
+import java.util.Iterator;
+
+/**
+ * Iterator keeping a {@link TableSet} alive until it is exhausted or abandoned.
+ */
+final class PinnedIterator<T> implements Iterator<T> {
+    private final Iterator<T> delegate;
+    private final Cleaner.Cleanable pin;
+
+    PinnedIterator(
+            @NotNull final TableSet set,
+            @NotNull final Iterator<T> delegate) {
+        this.delegate = delegate;
+        this.pin = set.pin(this);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (delegate.hasNext()) {
+            return true;
+        }
+        pin.clean();
+        return false;
+    }
+
+    @Override
+    public T next() {
+        return delegate.next();
+    }
+}
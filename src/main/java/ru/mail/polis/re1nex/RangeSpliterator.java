@@ -0,0 +1,155 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over a key range cut into sub-ranges, which are merged independently
+ * from one {@link TableSet} version. Splits hand out halves of the sub-ranges not started yet.
+ * The version is released when all splits are done or the stream is closed.
+ */
+final class RangeSpliterator implements Spliterator<Record> {
+    private final Shared shared;
+    private final List<ByteBuffer> bounds;
+    private final ByteBuffer to;
+    private int next;
+    private int end;
+    private long estimate;
+    private Iterator<Record> current;
+    private boolean done;
+
+    /**
+     * Creates spliterator over [from, to).
+     *
+     * @param set    - version to read, released by the spliterator
+     * @param bounds - from followed by increasing split keys within the range
+     * @param to     - end of the range, exclusive, or null for no end
+     * @param reader - merges the version in a sub-range
+     */
+    RangeSpliterator(
+            @NotNull final TableSet set,
+            @NotNull final List<ByteBuffer> bounds,
+            @Nullable final ByteBuffer to,
+            final long estimate,
+            @NotNull final Reader reader) {
+        this(new Shared(set, reader), bounds, to, 0, bounds.size(), estimate);
+    }
+
+    private RangeSpliterator(
+            @NotNull final Shared shared,
+            @NotNull final List<ByteBuffer> bounds,
+            @Nullable final ByteBuffer to,
+            final int next,
+            final int end,
+            final long estimate) {
+        this.shared = shared;
+        this.bounds = bounds;
+        this.to = to;
+        this.next = next;
+        this.end = end;
+        this.estimate = estimate;
+    }
+
+    /**
+     * Releases the version, to be called on stream close.
+     */
+    void close() {
+        shared.pin.clean();
+    }
+
+    @Override
+    public boolean tryAdvance(@NotNull final Consumer<? super Record> action) {
+        while (true) {
+            if (current == null) {
+                if (next == end) {
+                    finish();
+                    return false;
+                }
+                final ByteBuffer from = bounds.get(next);
+                next++;
+                try {
+                    current = shared.reader.read(from, next == bounds.size() ? to : bounds.get(next));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            if (current.hasNext()) {
+                action.accept(current.next());
+                return true;
+            }
+            current = null;
+        }
+    }
+
+    @Nullable
+    @Override
+    public Spliterator<Record> trySplit() {
+        if (current != null || end - next < 2) {
+            return null;
+        }
+        final int middle = (next + end) >>> 1;
+        final long prefixEstimate = estimate / (end - next) * (middle - next);
+        final RangeSpliterator prefix = new RangeSpliterator(shared, bounds, to, next, middle, prefixEstimate);
+        shared.parts.incrementAndGet();
+        next = middle;
+        estimate -= prefixEstimate;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | NONNULL;
+    }
+
+    private void finish() {
+        if (!done) {
+            done = true;
+            if (shared.parts.decrementAndGet() == 0) {
+                shared.pin.clean();
+            }
+        }
+    }
+
+    /**
+     * Reads records of a sub-range.
+     */
+    @FunctionalInterface
+    interface Reader {
+        @NotNull
+        Iterator<Record> read(
+                @NotNull ByteBuffer from,
+                @Nullable ByteBuffer to) throws IOException;
+    }
+
+    /**
+     * State of all splits, the version is also released when they become unreachable.
+     */
+    private static final class Shared {
+        private final Reader reader;
+        private final AtomicInteger parts = new AtomicInteger(1);
+        private final Cleaner.Cleanable pin;
+
+        Shared(
+                @NotNull final TableSet set,
+                @NotNull final Reader reader) {
+            this.reader = reader;
+            this.pin = set.pin(this);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reader of a file region for scans. Reads go in chunks growing twice on each refill,
+ * from a page to {@link #MAX_CHUNK}, so short scans read little and long ones read in big requests.
+ * The buffer is reused between refills and grows only for rows larger than it.
+ * With checksums reads are widened to whole blocks, each verified as it is loaded.
+ */
+final class ReadAhead {
+    static final int FIRST_CHUNK = 8 * 1024;
+    static final int MAX_CHUNK = 2 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long end;
+    private final Checksums checksums;
+    private ByteBuffer buffer = ByteBuffer.allocate(0);
+    //File position of the next byte after the buffer contents
+    private long filePosition;
+    private int chunk = FIRST_CHUNK;
+
+    /**
+     * Creates reader of [start, end) of the file.
+     */
+    ReadAhead(
+            @NotNull final FileChannel channel,
+            final long start,
+            final long end) {
+        this(channel, start, end, null);
+    }
+
+    /**
+     * Creates reader of [start, end) of the file verifying blocks against checksums, if there are any.
+     */
+    ReadAhead(
+            @NotNull final FileChannel channel,
+            final long start,
+            final long end,
+            @Nullable final Checksums checksums) {
+        this.channel = channel;
+        this.filePosition = start;
+        this.end = end;
+        this.checksums = checksums;
+    }
+
+    int getInt() throws IOException {
+        ensure(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    long getLong() throws IOException {
+        ensure(Long.BYTES);
+        return buffer.getLong();
+    }
+
+    /**
+     * Copies next bytes out of the reused buffer.
+     */
+    @NotNull
+    ByteBuffer get(final int size) throws IOException {
+        if (size < 0) {
+            throw new IOException("Negative size " + size + " of row part before " + filePosition);
+        }
+        ensure(size);
+        final ByteBuffer result = ByteBuffer.allocate(size);
+        final int limit = buffer.limit();
+        buffer.limit(buffer.position() + size);
+        result.put(buffer);
+        buffer.limit(limit);
+        return result.flip();
+    }
+
+    private void ensure(final int size) throws IOException {
+        if (buffer.remaining() >= size) {
+            return;
+        }
+        final long available = buffer.remaining() + Math.max(0L, end - filePosition);
+        if (available < size) {
+            throw new IOException("Row of " + size + " bytes crosses end of range at " + end);
+        }
+        long length = Math.max(size - buffer.remaining(), Math.min(chunk, end - filePosition));
+        //Bytes before the range in the first block, read only to verify it
+        int skip = 0;
+        if (checksums != null) {
+            final long from = Checksums.blockStart(filePosition);
+            skip = (int) (filePosition - from);
+            final long blocks = Checksums.blocks(skip + length);
+            length = Math.min(blocks * Checksums.BLOCK, checksums.size() - from);
+            filePosition = from;
+        }
+        final int want = buffer.remaining() + (int) length;
+        if (buffer.capacity() < want) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(want, chunk));
+            grown.put(buffer);
+            buffer = grown;
+        } else {
+            buffer.compact();
+        }
+        final int readStart = buffer.position();
+        final long readPosition = filePosition;
+        buffer.limit(want);
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, filePosition);
+            if (read < 0) {
+                throw new IOException("Unexpected end of table at " + filePosition);
+            }
+            filePosition += read;
+        }
+        buffer.flip();
+        if (checksums != null) {
+            checksums.verify(buffer.duplicate().position(readStart), readPosition);
+            //Only the first read starts before the range, the buffer is empty then
+            buffer.position(skip);
+            if (filePosition > end) {
+                buffer.limit(buffer.limit() - (int) (filePosition - end));
+            }
+        }
+        chunk = Math.min(chunk * 2, MAX_CHUNK);
+    }
+}
@@ -0,0 +1,273 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Byte-bounded cache of point lookup results (value or absence) with W-TinyLFU policy.
+ * New rows enter a small LRU window, and rows evicted from the window are admitted
+ * to the main LRU segment only if they are accessed more often than every victim they displace.
+ */
+final class RowCache {
+    static final ByteBuffer ABSENT = ByteBuffer.allocate(0);
+
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int WINDOW_PERCENT = 1;
+
+    private final Map<ByteBuffer, Node> map = new HashMap<>();
+    private final FrequencySketch sketch;
+    private final Node window = new Node();
+    private final Node main = new Node();
+    private final long windowCapacity;
+    private final long mainCapacity;
+    private long windowBytes;
+    private long mainBytes;
+    private long writes;
+
+    RowCache(final long capacityBytes) {
+        assert capacityBytes > 0L;
+        this.windowCapacity = Math.max(capacityBytes * WINDOW_PERCENT / 100, ENTRY_OVERHEAD);
+        this.mainCapacity = Math.max(capacityBytes - windowCapacity, 0L);
+        this.sketch = new FrequencySketch(capacityBytes / (ENTRY_OVERHEAD * 4));
+    }
+
+    /**
+     * Returns cached value, {@link #ABSENT} if key is known to be absent or null on miss.
+     */
+    @Nullable
+    synchronized ByteBuffer get(@NotNull final ByteBuffer key) {
+        sketch.increment(key.hashCode());
+        final Node node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        node.unlink();
+        node.linkBefore(node.inWindow ? window : main);
+        return node.value == null ? ABSENT : node.value.asReadOnlyBuffer();
+    }
+
+    /**
+     * Stamp to pass to {@link #put} to detect writes racing with a read from the store.
+     */
+    synchronized long stamp() {
+        return writes;
+    }
+
+    /**
+     * Caches lookup result unless any write happened since the stamp was taken.
+     */
+    synchronized void put(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value,
+            final long stamp) {
+        if (stamp != writes || map.containsKey(key)) {
+            return;
+        }
+        final Node node = new Node(copy(key), value == null ? null : copy(value));
+        if (node.weight > windowCapacity && node.weight > mainCapacity) {
+            return;
+        }
+        map.put(node.key, node);
+        node.inWindow = true;
+        node.linkBefore(window);
+        windowBytes += node.weight;
+        evict();
+    }
+
+    /**
+     * Keeps cached entry coherent with upsert (or remove if value is null).
+     */
+    synchronized void update(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        writes++;
+        final Node node = map.get(key);
+        if (node == null) {
+            return;
+        }
+        final long weight = node.weight;
+        node.value = value == null ? null : copy(value);
+        node.weight = weight(node.key, node.value);
+        if (node.inWindow) {
+            windowBytes += node.weight - weight;
+        } else {
+            mainBytes += node.weight - weight;
+        }
+        evict();
+    }
+
+    synchronized void invalidate(@NotNull final ByteBuffer key) {
+        writes++;
+        final Node node = map.remove(key);
+        if (node != null) {
+            remove(node);
+        }
+    }
+
+    synchronized void clear() {
+        writes++;
+        map.clear();
+        window.prev = window;
+        window.next = window;
+        main.prev = main;
+        main.next = main;
+        windowBytes = 0L;
+        mainBytes = 0L;
+    }
+
+    private void evict() {
+        while (windowBytes > windowCapacity) {
+            final Node candidate = window.next;
+            candidate.unlink();
+            windowBytes -= candidate.weight;
+            candidate.inWindow = false;
+            admit(candidate);
+        }
+        while (mainBytes > mainCapacity) {
+            final Node victim = main.next;
+            map.remove(victim.key);
+            remove(victim);
+        }
+    }
+
+    private void admit(@NotNull final Node candidate) {
+        if (candidate.weight > mainCapacity) {
+            map.remove(candidate.key);
+            return;
+        }
+        //The candidate has to win against every victim it would displace before any of them goes
+        final int frequency = sketch.frequency(candidate.key.hashCode());
+        long freed = 0L;
+        Node last = main;
+        while (mainBytes - freed + candidate.weight > mainCapacity) {
+            last = last.next;
+            if (sketch.frequency(last.key.hashCode()) >= frequency) {
+                map.remove(candidate.key);
+                return;
+            }
+            freed += last.weight;
+        }
+        while (freed > 0L) {
+            final Node victim = main.next;
+            freed -= victim.weight;
+            map.remove(victim.key);
+            remove(victim);
+        }
+        candidate.linkBefore(main);
+        mainBytes += candidate.weight;
+    }
+
+    private void remove(@NotNull final Node node) {
+        node.unlink();
+        if (node.inWindow) {
+            windowBytes -= node.weight;
+        } else {
+            mainBytes -= node.weight;
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        return copy.flip();
+    }
+
+    private static long weight(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        return ENTRY_OVERHEAD + key.remaining() + (value == null ? 0 : value.remaining());
+    }
+
+    private static final class Node {
+        final ByteBuffer key;
+        ByteBuffer value;
+        long weight;
+        boolean inWindow;
+        Node prev;
+        Node next;
+
+        /**
+         * List head.
+         */
+        Node() {
+            this.key = null;
+            this.prev = this;
+            this.next = this;
+        }
+
+        Node(@NotNull final ByteBuffer key, @Nullable final ByteBuffer value) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight(key, value);
+        }
+
+        void linkBefore(@NotNull final Node head) {
+            prev = head.prev;
+            next = head;
+            head.prev.next = this;
+            head.prev = this;
+        }
+
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit saturating access counters, halved periodically for aging.
+     */
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x97cb3127, 0x9e3779b9, 0xc2b2ae35, 0x85ebca6b};
+
+        private final byte[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(final long expectedEntries) {
+            final int width = Integer.highestOneBit((int) Math.min(Math.max(expectedEntries, 64L), 1 << 20)) << 1;
+            this.table = new byte[width * DEPTH];
+            this.mask = width - 1;
+            this.sampleSize = width * 10;
+        }
+
+        int frequency(final int hash) {
+            int min = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, table[index(hash, i)]);
+            }
+            return min;
+        }
+
+        void increment(final int hash) {
+            for (int i = 0; i < DEPTH; i++) {
+                final int index = index(hash, i);
+                if (table[index] < MAX_COUNT) {
+                    table[index]++;
+                }
+            }
+            if (++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int index(final int hash, final int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return row * (mask + 1) + (h & mask);
+        }
+    }
+}
@@ -1,36 +1,248 @@
 package ru.mail.polis.re1nex;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 final class SSTable implements Table {
+    private static final long MAGIC = 0x4C534D5353544142L;
+    private static final int VERSION = 8;
+    private static final int CHECKSUM_VERSION = 7;
+    //Value size of rows holding merge operands, followed by the real size
+    private static final int OPERAND = -2;
+    private static final int SCRUB_BLOCKS = 16;
+    private static final int MIN_VERSION = 2;
+    private static final int TRAILER_SIZE = 3 * Integer.BYTES + Long.BYTES;
+    private static final ByteBuffer NO_DATA = ByteBuffer.allocate(0);
 
+    private final File file;
     private final FileChannel channel;
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private volatile boolean obsolete;
+    private final long sizeFile;
     private final int numRows;
     private final long sizeData;
+    private final TableMeta meta;
+    private final BlobStore blobStore;
+    private final Map<Integer, BlobStore.BlobFile> blobs = new HashMap<>();
+    private final long blobBytes;
+    //Null for tables written before checksums
+    private final Checksums checksums;
+    //Bits of blocks point reads have checked, each block is read for that once while the table is open
+    private final AtomicLongArray verified;
 
-    SSTable(@NotNull final File file) throws IOException {
+    /**
+     * Opens table and blob files referenced by its rows.
+     */
+    SSTable(
+            @NotNull final File file,
+            @NotNull final BlobStore blobStore) throws IOException {
+        this.file = file;
+        this.blobStore = blobStore;
         channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
-        final long sizeFile = channel.size();
-        channel.position(sizeFile - Integer.BYTES);
-        final ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES);
-        channel.read(buf);
-        numRows = buf.rewind().getInt();
-        sizeData = sizeFile - (numRows + 1) * Integer.BYTES;
+        sizeFile = channel.size();
+        final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        if (sizeFile >= TRAILER_SIZE) {
+            channel.read(trailer, sizeFile - TRAILER_SIZE);
+        }
+        Checksums sums = null;
+        try {
+            if (trailer.getLong(TRAILER_SIZE - Long.BYTES) == MAGIC) {
+                numRows = trailer.getInt(0);
+                final int metaSize = trailer.getInt(Integer.BYTES);
+                final int version = trailer.getInt(2 * Integer.BYTES);
+                if (version < MIN_VERSION || version > VERSION) {
+                    throw new IOException("Unsupported table version " + version + " in " + file);
+                }
+                final long metaOffset = sizeFile - TRAILER_SIZE - metaSize;
+                if (numRows < 0 || metaSize < 0 || metaOffset < (long) numRows * Integer.BYTES) {
+                    throw new IOException("Corrupted trailer of table " + file);
+                }
+                final ByteBuffer metaBuf = ByteBuffer.allocate(metaSize);
+                readFully(metaBuf, metaOffset);
+                metaBuf.flip();
+                if (version >= CHECKSUM_VERSION) {
+                    verifyMeta(metaBuf);
+                }
+                meta = TableMeta.deserialize(metaBuf, version);
+                if (version >= CHECKSUM_VERSION) {
+                    final int[] crcs = new int[metaBuf.getInt()];
+                    for (int i = 0; i < crcs.length; i++) {
+                        crcs[i] = metaBuf.getInt();
+                    }
+                    if (crcs.length != Checksums.blocks(metaOffset)) {
+                        throw new IOException("Checksums of table " + file + " don't cover its rows");
+                    }
+                    sums = new Checksums(crcs, metaOffset);
+                }
+                sizeData = metaOffset - (long) numRows * Integer.BYTES;
+            } else {
+                //Table written before footer was introduced
+                final ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES);
+                channel.read(buf, sizeFile - Integer.BYTES);
+                numRows = buf.rewind().getInt();
+                sizeData = sizeFile - (numRows + 1) * Integer.BYTES;
+                meta = numRows == 0
+                        ? TableMeta.empty(KeyOrder.SIGNED)
+                        : new TableMeta(KeyOrder.SIGNED, key(0), key(numRows - 1), 0L, Long.MAX_VALUE, -1L);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        checksums = sums;
+        verified = sums == null ? null : new AtomicLongArray((sums.blocks() + Long.SIZE - 1) / Long.SIZE);
+        long referenced = 0L;
+        try {
+            for (final Map.Entry<Integer, Long> blob : meta.getBlobs().entrySet()) {
+                blobs.put(blob.getKey(), blobStore.retain(blob.getKey()));
+                referenced += blob.getValue();
+            }
+        } catch (IOException e) {
+            releaseBlobs();
+            channel.close();
+            throw e;
+        }
+        blobBytes = referenced;
+    }
+
+    /**
+     * Checks the meta section against its checksum written last and leaves the checksum out.
+     */
+    private void verifyMeta(@NotNull final ByteBuffer section) throws IOException {
+        final int crcPosition = section.limit() - Integer.BYTES;
+        if (crcPosition < 0) {
+            throw new IOException("Corrupted meta of table " + file);
+        }
+        final int crc = section.getInt(crcPosition);
+        section.limit(crcPosition);
+        if (Checksums.crc(section) != crc) {
+            throw new IOException("Checksum mismatch in meta of table " + file);
+        }
+    }
+
+    /**
+     * Checks size or offset read from a row or index, so that corrupted bytes fail the read
+     * instead of allocating a huge buffer or reading another row.
+     */
+    private int checkBounds(
+            final int value,
+            final long max,
+            final long position) throws IOException {
+        if (value < 0 || value > max) {
+            throw new IOException("Corrupted table " + file + " at " + position);
+        }
+        return value;
+    }
+
+    /**
+     * Reads the rows and the index in bulk and checks them against checksums.
+     * Tables written before checksums pass as they are.
+     */
+    void verify() throws IOException {
+        if (checksums == null) {
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(SCRUB_BLOCKS * Checksums.BLOCK);
+        for (long position = 0L; position < checksums.size(); position += buffer.capacity()) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), checksums.size() - position));
+            readFully(buffer, position);
+            checksums.verify(buffer.flip(), position);
+        }
+    }
+
+    /**
+     * Checks blocks holding the row and its offset before a point read or a cursor returns it.
+     */
+    private void verifyRow(final int row) throws IOException {
+        if (checksums == null) {
+            return;
+        }
+        final long index = sizeData + (long) row * Integer.BYTES;
+        final long start = getOffset(row);
+        final long end = row + 1 < numRows ? getOffset(row + 1) : sizeData;
+        if (end <= start) {
+            throw new IOException("Corrupted table " + file + " at " + index);
+        }
+        verifyRange(start, end);
+        verifyRange(index, index + Integer.BYTES);
+    }
+
+    private void verifyRange(
+            final long start,
+            final long end) throws IOException {
+        final int first = (int) (start / Checksums.BLOCK);
+        final int last = (int) ((end - 1) / Checksums.BLOCK);
+        for (int block = first; block <= last; block++) {
+            final long bit = 1L << (block % Long.SIZE);
+            if ((verified.get(block / Long.SIZE) & bit) != 0L) {
+                continue;
+            }
+            final long position = (long) block * Checksums.BLOCK;
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Checksums.BLOCK,
+                    checksums.size() - position));
+            readFully(buffer, position);
+            checksums.verify(buffer.flip(), position);
+            verified.getAndAccumulate(block / Long.SIZE, bit, (bits, b) -> bits | b);
+        }
+    }
+
+    @NotNull
+    TableMeta meta() {
+        return meta;
+    }
+
+    @NotNull
+    File file() {
+        return file;
+    }
+
+    int rows() {
+        return numRows;
+    }
+
+    long sizeInBytes() {
+        return sizeFile;
+    }
+
+    /**
+     * Reads at most maxSize first bytes of the key in given row, which is enough for a split point.
+     */
+    @NotNull
+    ByteBuffer keyPrefix(
+            final int row,
+            final int maxSize) throws IOException {
+        final int offset = getOffset(row);
+        final ByteBuffer keySize = ByteBuffer.allocate(Integer.BYTES);
+        channel.read(keySize, offset);
+        final int size = checkBounds(keySize.rewind().getInt(), sizeData - offset - Integer.BYTES, offset);
+        final ByteBuffer key = ByteBuffer.allocate(Math.min(size, maxSize));
+        channel.read(key, offset + Integer.BYTES);
+        return key.rewind();
     }
 
     private int getOffset(final int numRow) throws IOException {
         final ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES);
-        channel.read(buf, sizeData + numRow * Integer.BYTES);
-        return buf.rewind().getInt();
+        final long position = sizeData + (long) numRow * Integer.BYTES;
+        channel.read(buf, position);
+        return checkBounds(buf.rewind().getInt(), sizeData - Integer.BYTES, position);
     }
 
     @NotNull
@@ -38,15 +250,23 @@ final class SSTable implements Table {
         final int offset = getOffset(row);
         final ByteBuffer keySize = ByteBuffer.allocate(Integer.BYTES);
         channel.read(keySize, offset);
-        final ByteBuffer key = ByteBuffer.allocate(keySize.rewind().getInt());
+        final ByteBuffer key = ByteBuffer.allocate(
+                checkBounds(keySize.rewind().getInt(), sizeData - offset - Integer.BYTES, offset));
         channel.read(key, offset + Integer.BYTES);
         return key.rewind();
     }
 
     @NotNull
     private Cell cell(final int row) throws IOException {
+        return cell(row, key(row));
+    }
+
+    @NotNull
+    private Cell cell(
+            final int row,
+            @NotNull final ByteBuffer key) throws IOException {
+        verifyRow(row);
         int offset = getOffset(row);
-        final ByteBuffer key = key(row);
         offset += key.remaining() + Integer.BYTES;
         final ByteBuffer timestamp = ByteBuffer.allocate(Long.BYTES);
         channel.read(timestamp, offset);
@@ -56,11 +276,247 @@ final class SSTable implements Table {
         } else {
             final ByteBuffer valueSize = ByteBuffer.allocate(Integer.BYTES);
             channel.read(valueSize, offset);
-            final ByteBuffer value = ByteBuffer.allocate(valueSize.rewind().getInt());
             offset += Integer.BYTES;
+            if (valueSize.rewind().getInt() == BlobRef.MARKER) {
+                return new Cell(key, new Value(timestamp.rewind().getLong(), blobRef(offset)));
+            }
+            final boolean operand = valueSize.rewind().getInt() == OPERAND;
+            if (operand) {
+                channel.read(valueSize.rewind(), offset);
+                offset += Integer.BYTES;
+            }
+            final ByteBuffer value = ByteBuffer.allocate(
+                    checkBounds(valueSize.rewind().getInt(), sizeData - offset, offset - Integer.BYTES));
             channel.read(value, offset);
-            return new Cell(key, new Value(timestamp.rewind().getLong(), value.rewind()));
+            return new Cell(key, operand
+                    ? Value.operand(timestamp.rewind().getLong(), value.rewind())
+                    : new Value(timestamp.rewind().getLong(), value.rewind()));
+        }
+    }
+
+    /**
+     * Reads blob reference written to a row instead of the value.
+     */
+    @NotNull
+    private BlobRef blobRef(final long offset) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(BlobRef.SIZE);
+        readFully(buf, offset);
+        return blobRef(buf.flip());
+    }
+
+    @NotNull
+    private BlobRef blobRef(@NotNull final ByteBuffer buf) throws IOException {
+        final int gen = buf.getInt();
+        final BlobStore.BlobFile blob = blobs.get(gen);
+        if (blob == null) {
+            throw new IOException("Table " + file + " refers to unknown blob file " + gen);
+        }
+        return new BlobRef(blob, buf.getLong(), buf.getInt());
+    }
+
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) throws IOException {
+        if (!meta.mayContain(key)) {
+            return null;
+        }
+        final int pos = binarySearch(key);
+        if (pos < numRows && key(pos).equals(key)) {
+            return cell(pos);
+        }
+        return null;
+    }
+
+    /**
+     * Looks sorted keys up in one forward pass: each search gallops from the row found for the previous key,
+     * and keys of probed rows are read once per batch.
+     */
+    @NotNull
+    @Override
+    public Cell[] getAll(@NotNull final List<ByteBuffer> keys) throws IOException {
+        final Cell[] cells = new Cell[keys.size()];
+        final Map<Integer, ByteBuffer> probed = new HashMap<>();
+        int row = 0;
+        for (int i = 0; i < cells.length && row < numRows; i++) {
+            final ByteBuffer key = keys.get(i);
+            if (!meta.mayContain(key)) {
+                continue;
+            }
+            row = lowerBound(key, row, probed);
+            if (row < numRows) {
+                final ByteBuffer found = probedKey(row, probed);
+                if (found.equals(key)) {
+                    cells[i] = cell(row, found);
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Finds first row from start with key not less than given one.
+     */
+    private int lowerBound(
+            @NotNull final ByteBuffer key,
+            final int start,
+            @NotNull final Map<Integer, ByteBuffer> probed) throws IOException {
+        int low = start;
+        int high = start;
+        int step = 1;
+        while (high < numRows && meta.getOrder().compare(probedKey(high, probed), key) < 0) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        high = Math.min(high, numRows);
+        while (low < high) {
+            final int med = (low + high) >>> 1;
+            if (meta.getOrder().compare(probedKey(med, probed), key) < 0) {
+                low = med + 1;
+            } else {
+                high = med;
+            }
+        }
+        return low;
+    }
+
+    @NotNull
+    private ByteBuffer probedKey(
+            final int row,
+            @NotNull final Map<Integer, ByteBuffer> probed) throws IOException {
+        ByteBuffer key = probed.get(row);
+        if (key == null) {
+            key = key(row);
+            probed.put(row, key);
         }
+        return key.duplicate();
+    }
+
+    private void readFully(
+            @NotNull final ByteBuffer buffer,
+            final long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new IOException("Unexpected end of table at " + pos);
+            }
+            pos += read;
+        }
+    }
+
+    /**
+     * Reads key and timestamp of given row in one go, live rows get an empty value.
+     */
+    @NotNull
+    private Cell keyCell(final int row) throws IOException {
+        verifyRow(row);
+        final int offset = getOffset(row);
+        final ByteBuffer keySize = ByteBuffer.allocate(Integer.BYTES);
+        channel.read(keySize, offset);
+        final int size = checkBounds(keySize.rewind().getInt(), sizeData - offset - Integer.BYTES - Long.BYTES, offset);
+        final ByteBuffer buf = ByteBuffer.allocate(size + Long.BYTES);
+        readFully(buf, offset + Integer.BYTES);
+        final long timestamp = buf.getLong(size);
+        final ByteBuffer key = buf.flip().limit(size).slice();
+        return new Cell(key, timestamp < 0 ? new Value(-timestamp) : new Value(timestamp, NO_DATA));
+    }
+
+    /**
+     * Provides iterator like {@link #iterator(ByteBuffer, ByteBuffer)} that never reads values.
+     */
+    @NotNull
+    @Override
+    public Iterator<Cell> keys(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) throws IOException {
+        final int end = to == null ? numRows : binarySearch(to);
+        return new Iterator<Cell>() {
+            int pos = binarySearch(from);
+
+            @Override
+            public boolean hasNext() {
+                return pos < end;
+            }
+
+            @Override
+            public Cell next() {
+                try {
+                    return keyCell(pos++);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Finds first row with key not less than given one, the number of rows if there is none.
+     */
+    int rank(@NotNull final ByteBuffer key) throws IOException {
+        return binarySearch(key);
+    }
+
+    /**
+     * Counts rows, tombstones included, in [from, to) by searching the bounds.
+     */
+    int count(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) throws IOException {
+        final int start = binarySearch(from);
+        return Math.max(0, (to == null ? numRows : binarySearch(to)) - start);
+    }
+
+    /**
+     * Estimates number of rows, tombstones included, in [from, to) from sampled keys without reading the table.
+     */
+    long estimateCount(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        if (meta.getSamples().isEmpty()) {
+            return meta.overlaps(from, to) ? numRows : 0L;
+        }
+        final long start = estimatePosition(from, true);
+        return Math.max(0L, (to == null ? numRows : estimatePosition(to, true)) - start);
+    }
+
+    /**
+     * Estimates size of rows in [from, to) from sampled keys without reading the table.
+     */
+    long estimateSize(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        final long rows;
+        if (meta.getSamples().isEmpty()) {
+            rows = meta.overlaps(from, to) ? sizeData : 0L;
+        } else {
+            final long start = estimatePosition(from, false);
+            rows = Math.max(0L, (to == null ? sizeData : estimatePosition(to, false)) - start);
+        }
+        //Blob values are assumed to be spread like rows
+        return sizeData == 0L ? rows : rows + (long) ((double) blobBytes * rows / sizeData);
+    }
+
+    /**
+     * Row number or offset of the first row with key not less than the given one,
+     * taken halfway between the samples around the key.
+     */
+    private long estimatePosition(
+            @NotNull final ByteBuffer key,
+            final boolean row) {
+        if (meta.before(key)) {
+            return row ? numRows : sizeData;
+        }
+        final List<TableMeta.Sample> samples = meta.getSamples();
+        final int rank = meta.sampleRank(key);
+        if (rank == 0) {
+            return 0L;
+        }
+        final TableMeta.Sample before = samples.get(rank - 1);
+        final long low = row ? before.row : before.offset;
+        final long high;
+        if (rank < samples.size()) {
+            high = row ? samples.get(rank).row : samples.get(rank).offset;
+        } else {
+            high = row ? numRows : sizeData;
+        }
+        return (low + high) / 2;
     }
 
     private int binarySearch(@NotNull final ByteBuffer from) throws IOException {
@@ -68,7 +524,7 @@ final class SSTable implements Table {
         int r = numRows - 1;
         while (l <= r) {
             final int med = (l + r) / 2;
-            final int cmp = key(med).compareTo(from);
+            final int cmp = meta.getOrder().compare(key(med), from);
             if (cmp < 0) {
                 l = med + 1;
             } else if (cmp > 0) {
@@ -82,26 +538,61 @@ final class SSTable implements Table {
 
     @NotNull
     @Override
-    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) throws IOException {
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) throws IOException {
+        final int start = binarySearch(from);
+        final int end = to == null ? numRows : binarySearch(to);
+        if (start >= end) {
+            return Collections.emptyIterator();
+        }
+        //Rows of a range lie one after another, so they are decoded in order without the offsets index
+        final ReadAhead rows = new ReadAhead(channel, getOffset(start), end == numRows ? sizeData : getOffset(end),
+                checksums);
         return new Iterator<Cell>() {
-            int pos = binarySearch(from);
+            int pos = start;
 
             @Override
             public boolean hasNext() {
-                return pos < numRows;
+                return pos < end;
             }
 
             @Override
             public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("Table range is exhausted");
+                }
+                pos++;
                 try {
-                    return cell(pos++);
+                    return cell(rows);
                 } catch (IOException e) {
-                    throw new RuntimeException(e);
+                    throw new UncheckedIOException(e);
                 }
             }
         };
     }
 
+    @NotNull
+    private Cell cell(@NotNull final ReadAhead rows) throws IOException {
+        final ByteBuffer key = rows.get(rows.getInt());
+        final long timestamp = rows.getLong();
+        if (timestamp < 0) {
+            return new Cell(key, new Value(-timestamp));
+        }
+        final int valueSize = rows.getInt();
+        if (valueSize == BlobRef.MARKER) {
+            return new Cell(key, new Value(timestamp, blobRef(rows.get(BlobRef.SIZE))));
+        }
+        if (valueSize == OPERAND) {
+            return new Cell(key, Value.operand(timestamp, rows.get(rows.getInt())));
+        }
+        return new Cell(key, new Value(timestamp, rows.get(valueSize)));
+    }
+
+    @NotNull
+    @Override
+    public CellCursor cursor() {
+        return new SSTableCursor();
+    }
+
     @Override
     public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
         throw new UnsupportedOperationException("Immutable");
@@ -112,58 +603,226 @@ final class SSTable implements Table {
         throw new UnsupportedOperationException("Immutable");
     }
 
+    /**
+     * Drops the reference of the opener, same as {@link #release()}.
+     */
     @Override
     public void close() throws IOException {
-        channel.close();
+        release();
+    }
+
+    /**
+     * Takes one more reference, the table must still be referenced.
+     */
+    void retain() {
+        final int previous = refs.getAndIncrement();
+        assert previous > 0;
+    }
+
+    /**
+     * Drops a reference, the last one closes the table and deletes the file if it is obsolete.
+     */
+    void release() throws IOException {
+        if (refs.decrementAndGet() == 0) {
+            channel.close();
+            if (obsolete) {
+                Files.deleteIfExists(file.toPath());
+            }
+            releaseBlobs();
+        }
+    }
+
+    private void releaseBlobs() throws IOException {
+        for (final BlobStore.BlobFile blob : blobs.values()) {
+            blobStore.release(blob);
+        }
+        blobs.clear();
+    }
+
+    /**
+     * Marks the table replaced, so its file is deleted when the last reference is dropped.
+     */
+    void markObsolete() {
+        obsolete = true;
+    }
+
+    private final class SSTableCursor implements CellCursor {
+        private final ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+        private ByteBuffer keyBuffer = ByteBuffer.allocate(0);
+        private ByteBuffer valueBuffer = ByteBuffer.allocate(0);
+        private int row = numRows;
+        private long timestamp;
+        private long valueOffset;
+        private boolean valueLoaded;
+
+        @Override
+        public void seek(@NotNull final ByteBuffer key) throws IOException {
+            int l = 0;
+            int r = numRows - 1;
+            while (l <= r) {
+                final int med = (l + r) >>> 1;
+                final int cmp = meta.getOrder().compare(loadKey(med), key);
+                if (cmp < 0) {
+                    l = med + 1;
+                } else if (cmp > 0) {
+                    r = med - 1;
+                } else {
+                    l = med;
+                    break;
+                }
+            }
+            row = l;
+            load();
+        }
+
+        @Override
+        public void next() throws IOException {
+            row++;
+            load();
+        }
+
+        @Override
+        public boolean isValid() {
+            return row < numRows;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return keyBuffer.position(0);
+        }
+
+        @Override
+        public long timestamp() {
+            return Math.abs(timestamp);
+        }
+
+        @Override
+        public boolean isTombstone() {
+            return timestamp < 0;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() throws IOException {
+            assert !isTombstone();
+            if (!valueLoaded) {
+                final int valueSize = readHeader(valueOffset, Integer.BYTES).getInt();
+                if (valueSize == OPERAND) {
+                    //Cursors are not used with a merge operator
+                    throw new IOException("Merge operand in " + file + " needs a merge operator");
+                }
+                if (valueSize == BlobRef.MARKER) {
+                    final BlobRef ref = blobRef(valueOffset + Integer.BYTES);
+                    valueBuffer = CellCursor.ensureCapacity(valueBuffer, ref.length());
+                    ref.file().read(valueBuffer, ref.offset());
+                } else {
+                    checkBounds(valueSize, sizeData - valueOffset - Integer.BYTES, valueOffset);
+                    valueBuffer = CellCursor.ensureCapacity(valueBuffer, valueSize);
+                    readFully(valueBuffer, valueOffset + Integer.BYTES);
+                }
+                valueLoaded = true;
+            }
+            return valueBuffer.position(0);
+        }
+
+        private void load() throws IOException {
+            if (!isValid()) {
+                return;
+            }
+            verifyRow(row);
+            final long offset = loadKey(row).remaining() + rowOffset(row) + Integer.BYTES;
+            timestamp = readHeader(offset, Long.BYTES).getLong();
+            valueOffset = offset + Long.BYTES;
+            valueLoaded = false;
+        }
+
+        @NotNull
+        private ByteBuffer loadKey(final int index) throws IOException {
+            final long offset = rowOffset(index);
+            final int keySize = checkBounds(readHeader(offset, Integer.BYTES).getInt(),
+                    sizeData - offset - Integer.BYTES, offset);
+            keyBuffer = CellCursor.ensureCapacity(keyBuffer, keySize);
+            readFully(keyBuffer, offset + Integer.BYTES);
+            return keyBuffer.position(0);
+        }
+
+        private long rowOffset(final int index) throws IOException {
+            final long position = sizeData + (long) index * Integer.BYTES;
+            return checkBounds(readHeader(position, Integer.BYTES).getInt(), sizeData - Integer.BYTES, position);
+        }
+
+        @NotNull
+        private ByteBuffer readHeader(
+                final long position,
+                final int size) throws IOException {
+            header.clear().limit(size);
+            readFully(header, position);
+            return header.position(0);
+        }
     }
 
     /**
      * Structure of table.
      * keySize(Integer)|key|timestamp(Long)|tombstone(Byte)||valueSize(Integer)|value||
+     * valueSize is -1 for values in blob files, followed by blobGen(Integer)|blobOffset(Long)|length(Integer)
+     * valueSize is -2 for merge operands, followed by operandSize(Integer)|operand
      * offsets
-     * n
+     * meta|blocks(Integer)|crc of each block of rows and offsets(Integer)|crc of the meta section(Integer)
+     * n(Integer)|metaSize(Integer)|version(Integer)|magic(Long)
      */
-    static void serialize(final File file, final Iterator<Cell> iterator) throws IOException {
-        try (FileChannel fileChannel = new FileOutputStream(file).getChannel()) {
+    static void serialize(
+            final File file,
+            final Iterator<Cell> iterator,
+            final KeyOrder order,
+            final boolean force,
+            @NotNull final BlobLog blobLog) throws IOException {
+        try (BlockWriter writer = new BlockWriter(new FileOutputStream(file).getChannel(), force, true)) {
             final ArrayList<Integer> offsets = new ArrayList<>();
-            int offset = 0;
+            final TableMeta.Builder meta = new TableMeta.Builder(order);
             while (iterator.hasNext()) {
-                offsets.add(offset);
+                offsets.add((int) writer.position());
                 final Cell buf = iterator.next();
                 final ByteBuffer key = buf.getKey();
                 final Value value = buf.getValue();
-                final int keySize = key.remaining();
-                offset += Integer.BYTES + keySize + Long.BYTES;
-                fileChannel.write(ByteBuffer.allocate(Integer.BYTES)
-                        .putInt(keySize)
-                        .rewind());
-                fileChannel.write(key);
+                meta.add(key, value.getTimestamp(), value.isTombstone(), writer.position());
+                writer.putInt(key.remaining());
+                writer.put(key);
                 if (value.isTombstone()) {
-                    fileChannel.write(ByteBuffer.allocate(Long.BYTES)
-                            .putLong(-value.getTimestamp())
-                            .rewind());
+                    writer.putLong(-value.getTimestamp());
                 } else {
-                    fileChannel.write(ByteBuffer.allocate(Long.BYTES)
-                            .putLong(value.getTimestamp())
-                            .rewind());
-                    final ByteBuffer data = value.getData();
-                    final int valueSize = data.remaining();
-                    offset += Integer.BYTES + valueSize;
-                    fileChannel.write(ByteBuffer.allocate(Integer.BYTES)
-                            .putInt(valueSize)
-                            .rewind());
-                    fileChannel.write(data);
+                    writer.putLong(value.getTimestamp());
+                    if (value.isOperand()) {
+                        final ByteBuffer data = value.getData();
+                        writer.putInt(OPERAND);
+                        writer.putInt(data.remaining());
+                        writer.put(data);
+                    } else if (!blobLog.place(value, writer, meta)) {
+                        final ByteBuffer data = value.getData();
+                        writer.putInt(data.remaining());
+                        writer.put(data);
+                    }
                 }
             }
-            final int offsetSize = offsets.size();
             for (final Integer off : offsets) {
-                fileChannel.write(ByteBuffer.allocate(Integer.BYTES)
-                        .putInt(off)
-                        .rewind());
+                writer.putInt(off);
+            }
+            final Checksums checksums = writer.checksums();
+            final ByteBuffer metaBuf = meta.build().serialize();
+            final int sectionSize = metaBuf.remaining() + (checksums.blocks() + 2) * Integer.BYTES;
+            final ByteBuffer section = ByteBuffer.allocate(sectionSize)
+                    .put(metaBuf)
+                    .putInt(checksums.blocks());
+            for (int i = 0; i < checksums.blocks(); i++) {
+                section.putInt(checksums.crc(i));
             }
-            fileChannel.write(ByteBuffer.allocate(Integer.BYTES)
-                    .putInt(offsetSize)
-                    .rewind());
+            section.putInt(Checksums.crc(section.duplicate().flip()));
+            final int metaSize = section.capacity();
+            writer.put(section.flip());
+            writer.putInt(offsets.size());
+            writer.putInt(metaSize);
+            writer.putInt(VERSION);
+            writer.putLong(MAGIC);
         }
     }
 }
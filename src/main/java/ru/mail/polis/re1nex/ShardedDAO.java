@@ -0,0 +1,366 @@
+package ru.mail.polis.re1nex;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.DAO;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Store partitioning keys over independent {@link NewDAO} shards, each in its own subdirectory
+ * with its own memtable, background flush and compaction. Keys are routed by hash or by ranges
+ * between split keys, the partitioning is saved on creation and checked on open.
+ */
+public final class ShardedDAO implements DAO {
+    private static final String DESCRIPTOR = "shards";
+    private static final String SHARD_PREFIX = "shard-";
+    private static final int HASH = 0;
+    private static final int RANGE = 1;
+
+    private final KeyOrder keyOrder;
+    private final List<ByteBuffer> splitKeys;
+    private final List<NewDAO> shards;
+
+    /**
+     * Creates store with keys spread over shards by hash. Range reads merge all shards.
+     *
+     * @param storage        - directory for shard subdirectories
+     * @param flushThreshold - max size of memtable of each shard
+     * @param config         - options of the store, row cache and thread budgets are split between shards
+     * @param shards         - number of shards
+     */
+    public ShardedDAO(
+            @NotNull final File storage,
+            final long flushThreshold,
+            @NotNull final Config config,
+            final int shards) throws IOException {
+        this(storage, flushThreshold, config, shards, Collections.emptyList());
+    }
+
+    /**
+     * Creates store with keys split into ranges, the shard i takes keys from the split key i - 1 (inclusive)
+     * to the split key i (exclusive). Range reads visit only shards the range touches.
+     *
+     * @param storage        - directory for shard subdirectories
+     * @param flushThreshold - max size of memtable of each shard
+     * @param config         - options of the store, row cache and thread budgets are split between shards
+     * @param splitKeys      - increasing keys in the configured order, one less than shards
+     */
+    public ShardedDAO(
+            @NotNull final File storage,
+            final long flushThreshold,
+            @NotNull final Config config,
+            @NotNull final List<ByteBuffer> splitKeys) throws IOException {
+        this(storage, flushThreshold, config, splitKeys.size() + 1, splitKeys);
+    }
+
+    private ShardedDAO(
+            @NotNull final File storage,
+            final long flushThreshold,
+            @NotNull final Config config,
+            final int count,
+            @NotNull final List<ByteBuffer> splitKeys) throws IOException {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Non-positive number of shards: " + count);
+        }
+        this.keyOrder = config.getKeyOrder();
+        this.splitKeys = new ArrayList<>(splitKeys.size());
+        for (int i = 0; i < splitKeys.size(); i++) {
+            if (i > 0 && keyOrder.compare(splitKeys.get(i - 1), splitKeys.get(i)) >= 0) {
+                throw new IllegalArgumentException("Split keys are not increasing at " + i);
+            }
+            this.splitKeys.add(splitKeys.get(i).duplicate());
+        }
+        checkDescriptor(storage, splitKeys.isEmpty() ? HASH : RANGE, count);
+        this.shards = new ArrayList<>(count);
+        final Config shardConfig = config.forShard(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                final File dir = new File(storage, SHARD_PREFIX + i);
+                Files.createDirectories(dir.toPath());
+                shards.add(new NewDAO(dir, flushThreshold, shardConfig));
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Saves the partitioning of a new store or checks the one of an existing store.
+     */
+    private void checkDescriptor(
+            @NotNull final File storage,
+            final int mode,
+            final int count) throws IOException {
+        int size = 3 * Integer.BYTES;
+        for (final ByteBuffer key : splitKeys) {
+            size += Integer.BYTES + key.remaining();
+        }
+        final ByteBuffer descriptor = ByteBuffer.allocate(size)
+                .putInt(mode)
+                .putInt(count)
+                .putInt(keyOrder.ordinal());
+        for (final ByteBuffer key : splitKeys) {
+            descriptor.putInt(key.remaining()).put(key.duplicate());
+        }
+        final File file = new File(storage, DESCRIPTOR);
+        if (file.exists()) {
+            if (!Arrays.equals(descriptor.array(), Files.readAllBytes(file.toPath()))) {
+                throw new IllegalStateException("Storage " + storage
+                        + " is sharded differently, it can't be opened with " + count + " shards");
+            }
+            return;
+        }
+        final File tmp = new File(storage, DESCRIPTOR + ".tmp");
+        Files.write(tmp.toPath(), descriptor.array());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Picks shard by split keys or by FNV-1a hash of the key, which must never change for stored data.
+     */
+    private int shard(@NotNull final ByteBuffer key) {
+        if (!splitKeys.isEmpty()) {
+            final int index = Collections.binarySearch(splitKeys, key, keyOrder);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+        int hash = 0x811C9DC5;
+        for (int i = key.position(); i < key.limit(); i++) {
+            hash = (hash ^ (key.get(i) & 0xFF)) * 0x01000193;
+        }
+        return Math.floorMod(hash, shards.size());
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return range(from, null);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        if (splitKeys.isEmpty()) {
+            final List<Iterator<Record>> iters = new ArrayList<>(shards.size());
+            for (final NewDAO shard : shards) {
+                iters.add(shard.range(from, to));
+            }
+            return Iterators.mergeSorted(iters, Comparator.comparing(Record::getKey, keyOrder));
+        }
+        final int first = shard(from);
+        final int last = to == null ? shards.size() - 1 : shard(to);
+        final List<Iterator<Record>> iters = new ArrayList<>(Math.max(0, last - first + 1));
+        for (int i = first; i <= last; i++) {
+            iters.add(shards.get(i).range(i == first ? from : splitKeys.get(i - 1), to));
+        }
+        return Iterators.concat(iters.iterator());
+    }
+
+    /**
+     * Range-partitioned streams chain streams of shards, so each of them splits for parallel processing.
+     */
+    @NotNull
+    @Override
+    public Stream<Record> stream(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final boolean parallel) throws IOException {
+        if (splitKeys.isEmpty()) {
+            return DAO.super.stream(from, to, parallel);
+        }
+        final int first = shard(from);
+        final int last = to == null ? shards.size() - 1 : shard(to);
+        Stream<Record> result = Stream.empty();
+        try {
+            for (int i = first; i <= last; i++) {
+                final ByteBuffer start = i == first ? from : splitKeys.get(i - 1);
+                result = Stream.concat(result, shards.get(i).stream(start, to, parallel));
+            }
+        } catch (IOException | RuntimeException e) {
+            result.close();
+            throw e;
+        }
+        return parallel ? result.parallel() : result;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<ByteBuffer> keys(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        if (splitKeys.isEmpty()) {
+            final List<Iterator<ByteBuffer>> iters = new ArrayList<>(shards.size());
+            for (final NewDAO shard : shards) {
+                iters.add(shard.keys(from, to));
+            }
+            return Iterators.mergeSorted(iters, keyOrder);
+        }
+        return DAO.super.keys(from, to);
+    }
+
+    @Override
+    public long count(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        long count = 0L;
+        for (final NewDAO shard : shards) {
+            count += shard.count(from, to);
+        }
+        return count;
+    }
+
+    @Override
+    public long estimateCount(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        long count = 0L;
+        for (final NewDAO shard : shards) {
+            count += shard.estimateCount(from, to);
+        }
+        return count;
+    }
+
+    @Override
+    public long estimateSize(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        long size = 0L;
+        for (final NewDAO shard : shards) {
+            size += shard.estimateSize(from, to);
+        }
+        return size;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        return shards.get(shard(key)).get(key);
+    }
+
+    @NotNull
+    @Override
+    public Map<ByteBuffer, ByteBuffer> getAll(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        final List<List<ByteBuffer>> routed = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            routed.add(new ArrayList<>());
+        }
+        for (final ByteBuffer key : keys) {
+            routed.get(shard(key)).add(key);
+        }
+        final Map<ByteBuffer, ByteBuffer> result = new HashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            if (!routed.get(i).isEmpty()) {
+                result.putAll(shards.get(i).getAll(routed.get(i)));
+            }
+        }
+        return result;
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<ByteBuffer> getAsync(@NotNull final ByteBuffer key) {
+        return shards.get(shard(key)).getAsync(key);
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<Void> upsertAsync(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        return shards.get(shard(key)).upsertAsync(key, value);
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<Void> removeAsync(@NotNull final ByteBuffer key) {
+        return shards.get(shard(key)).removeAsync(key);
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        shards.get(shard(key)).upsert(key, value);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        shards.get(shard(key)).remove(key);
+    }
+
+    /**
+     * Writes the value if the key has the expected one like
+     * {@link NewDAO#compareAndSet(ByteBuffer, ByteBuffer, ByteBuffer)}.
+     */
+    public boolean compareAndSet(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer expected,
+            @Nullable final ByteBuffer value) throws IOException {
+        return shards.get(shard(key)).compareAndSet(key, expected, value);
+    }
+
+    public boolean putIfAbsent(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        return shards.get(shard(key)).putIfAbsent(key, value);
+    }
+
+    /**
+     * Writes operand to the shard of the key like {@link NewDAO#merge(ByteBuffer, ByteBuffer)}.
+     */
+    public void merge(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer operand) throws IOException {
+        shards.get(shard(key)).merge(key, operand);
+    }
+
+    @Override
+    public void compact() throws IOException {
+        for (final NewDAO shard : shards) {
+            shard.compact();
+        }
+    }
+
+    /**
+     * Closes all shards, the first failure is thrown after that.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (final NewDAO shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
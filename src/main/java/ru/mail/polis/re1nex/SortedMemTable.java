@@ -0,0 +1,213 @@
+package ru.mail.polis.re1nex;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.UnaryOperator;
+
+/**
+ * Memtable sorted by a skip list, the default one.
+ * Keys greater than all others are appended to a sorted run instead of the skip list,
+ * so writes of increasing keys cost no search. Each key lives either in the run or in the map.
+ */
+final class SortedMemTable extends MemTable {
+    private final ConcurrentSkipListMap<ByteBuffer, Value> map;
+    //Readers take the count first, the run is replaced before the count grows
+    private volatile AppendRun run = new AppendRun(0);
+    private volatile int appended;
+
+    SortedMemTable(@NotNull final KeyOrder order) {
+        super(order);
+        this.map = new ConcurrentSkipListMap<>(order);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        final SortedMap<ByteBuffer, Value> subMap = to == null ? map.tailMap(from) : map.subMap(from, to);
+        final Iterator<Cell> mapCells = subMap
+                .entrySet()
+                .stream()
+                .map(element -> new Cell(element.getKey(), element.getValue()))
+                .iterator();
+        final int count = appended;
+        if (count == 0) {
+            return mapCells;
+        }
+        final AppendRun snapshot = run;
+        final int start = snapshot.lowerBound(from, count, order);
+        final int end = to == null ? count : Math.max(start, snapshot.lowerBound(to, count, order));
+        if (start == end) {
+            return mapCells;
+        }
+        return Iterators.mergeSorted(Arrays.asList(mapCells, snapshot.cells(start, end)), Cell.comparator(order));
+    }
+
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) {
+        Value value = map.get(key);
+        if (value == null) {
+            final int count = appended;
+            final AppendRun snapshot = run;
+            final int index = count == 0 ? -1 : Arrays.binarySearch(snapshot.keys, 0, count, key, order);
+            if (index >= 0) {
+                value = snapshot.values.get(index);
+            }
+        }
+        return value == null ? null : new Cell(key, value);
+    }
+
+    /**
+     * Appends the key to the run if it is greater than all others, otherwise replaces
+     * its value in the run or puts it to the map. Writers are serialized to keep keys in one place.
+     */
+    @Nullable
+    @Override
+    synchronized Value put(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value) {
+        final int count = appended;
+        final AppendRun current = run;
+        if ((count == 0 || order.compare(key, current.keys[count - 1]) > 0)
+                && (map.isEmpty() || order.compare(key, map.lastKey()) > 0)) {
+            final AppendRun target = count == current.keys.length ? current.grow(count) : current;
+            target.keys[count] = key;
+            target.values.set(count, value);
+            run = target;
+            appended = count + 1;
+            return null;
+        }
+        if (count > 0 && order.compare(key, current.keys[0]) >= 0) {
+            final int index = Arrays.binarySearch(current.keys, 0, count, key, order);
+            if (index >= 0) {
+                return current.values.getAndSet(index, value);
+            }
+        }
+        return map.put(key, value);
+    }
+
+    /**
+     * Reads the previous value and puts the new one holding the writer lock.
+     */
+    @Nullable
+    @Override
+    synchronized Value update(
+            @NotNull final ByteBuffer key,
+            @NotNull final UnaryOperator<Value> update) {
+        final Cell cell = get(key);
+        final Value previous = cell == null ? null : cell.getValue();
+        put(key, update.apply(previous));
+        return previous;
+    }
+
+    @Override
+    synchronized boolean replace(
+            @NotNull final ByteBuffer key,
+            @Nullable final Value expected,
+            @NotNull final Value value) {
+        final Cell cell = get(key);
+        if ((cell == null ? null : cell.getValue()) != expected) {
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        map.clear();
+        appended = 0;
+        run = new AppendRun(0);
+    }
+
+    @NotNull
+    @Override
+    TableMeta meta() {
+        final int count = appended;
+        final AppendRun snapshot = run;
+        final Map.Entry<ByteBuffer, Value> first = map.firstEntry();
+        final Map.Entry<ByteBuffer, Value> last = map.lastEntry();
+        ByteBuffer min = first == null ? null : first.getKey();
+        ByteBuffer max = last == null ? null : last.getKey();
+        if (count > 0) {
+            if (min == null || order.compare(snapshot.keys[0], min) < 0) {
+                min = snapshot.keys[0];
+            }
+            if (max == null || order.compare(snapshot.keys[count - 1], max) > 0) {
+                max = snapshot.keys[count - 1];
+            }
+        }
+        if (min == null || max == null) {
+            return TableMeta.empty(order);
+        }
+        return new TableMeta(order, min, max, 0L, Long.MAX_VALUE, -1L);
+    }
+
+    /**
+     * Sorted keys with values replaced in place. Arrays are copied to grow under the writer lock.
+     */
+    private static final class AppendRun {
+        private static final int MIN_CAPACITY = 64;
+
+        private final ByteBuffer[] keys;
+        private final AtomicReferenceArray<Value> values;
+
+        AppendRun(final int capacity) {
+            this.keys = new ByteBuffer[capacity];
+            this.values = new AtomicReferenceArray<>(capacity);
+        }
+
+        @NotNull
+        AppendRun grow(final int count) {
+            final AppendRun grown = new AppendRun(Math.max(MIN_CAPACITY, count * 2));
+            System.arraycopy(keys, 0, grown.keys, 0, count);
+            for (int i = 0; i < count; i++) {
+                grown.values.set(i, values.get(i));
+            }
+            return grown;
+        }
+
+        int lowerBound(
+                @NotNull final ByteBuffer key,
+                final int count,
+                @NotNull final KeyOrder order) {
+            final int index = Arrays.binarySearch(keys, 0, count, key, order);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        @NotNull
+        Iterator<Cell> cells(
+                final int start,
+                final int end) {
+            return new Iterator<Cell>() {
+                private int index = start;
+
+                @Override
+                public boolean hasNext() {
+                    return index < end;
+                }
+
+                @Override
+                public Cell next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException("Append run is exhausted");
+                    }
+                    final Cell cell = new Cell(keys[index], values.get(index));
+                    index++;
+                    return cell;
+                }
+            };
+        }
+    }
+}
@@ -1,22 +1,65 @@
 package ru.mail.polis.re1nex;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.List;
 
 public interface Table {
 
     /**
      * Provides iterator (possibly empty) over {@link Cell}s starting at "from" key (inclusive)
-     * in <b>ascending</b> order according to {@link Cell#compareTo(Cell)}.
+     * in <b>ascending</b> order according to {@link Cell#comparator(KeyOrder)}.
      * N.B. The iterator should be obtained as fast as possible, e.g.
      * one should not "seek" to start point ("from" element) in linear time ;)
      */
     @NotNull
-    Iterator<Cell> iterator(@NotNull ByteBuffer from) throws IOException;
+    default Iterator<Cell> iterator(@NotNull ByteBuffer from) throws IOException {
+        return iterator(from, null);
+    }
 
+    /**
+     * Provides iterator (possibly empty) over {@link Cell}s starting at "from" key (inclusive)
+     * until given "to" key (exclusive) in <b>ascending</b> order according to {@link Cell#comparator(KeyOrder)}.
+     * The iterator never reads cells at or past "to".
+     */
+    @NotNull
+    Iterator<Cell> iterator(@NotNull ByteBuffer from, @Nullable ByteBuffer to) throws IOException;
+
+    /**
+     * Provides iterator like {@link #iterator(ByteBuffer, ByteBuffer)}, but values of live cells may be left empty.
+     */
+    @NotNull
+    default Iterator<Cell> keys(@NotNull ByteBuffer from, @Nullable ByteBuffer to) throws IOException {
+        return iterator(from, to);
+    }
+
+    /**
+     * Obtains {@link Cell} (possibly tombstone) with exactly given key or null if table has none.
+     */
+    @Nullable
+    Cell get(@NotNull ByteBuffer key) throws IOException;
+
+    /**
+     * Obtains cells like {@link #get(ByteBuffer)} for keys sorted in table order, null for missing ones.
+     */
+    @NotNull
+    default Cell[] getAll(@NotNull final List<ByteBuffer> keys) throws IOException {
+        final Cell[] cells = new Cell[keys.size()];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = get(keys.get(i));
+        }
+        return cells;
+    }
+
+    /**
+     * Provides unpositioned {@link CellCursor}, call {@link CellCursor#seek(ByteBuffer)} first.
+     */
+    @NotNull
+    CellCursor cursor() throws IOException;
 
     /**
      * Inserts or updates value by given key.
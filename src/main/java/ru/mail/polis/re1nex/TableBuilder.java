@@ -0,0 +1,216 @@
+package ru.mail.polis.re1nex;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Iters;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Writes tables for {@link NewDAO#ingest(List)} from rows in any order by external sort.
+ * Rows are sorted in memory in runs of bounded size and each run is written to a table.
+ * If the keys came increasing, the runs have disjoint key ranges and are the result as they are,
+ * otherwise they are merged once into tables of the same size. Rows are stamped with the time
+ * they are added, so a key added again replaces the earlier value.
+ */
+public final class TableBuilder implements Closeable {
+    private static final String RUN = "run-";
+    private static final String TABLE = "table-";
+    private static final String SUFFIX = ".dat";
+
+    private final File dir;
+    private final KeyOrder keyOrder;
+    private final boolean force;
+    private final long runBytes;
+    private final BlobStore blobStore;
+    private final List<File> runs = new ArrayList<>();
+    private NavigableMap<ByteBuffer, Value> run;
+    private long size;
+    private ByteBuffer last;
+    private boolean sorted = true;
+    private boolean finished;
+
+    /**
+     * Creates builder writing to the directory, which should be on the file system of the store.
+     *
+     * @param dir      - directory for runs and result tables
+     * @param config   - options of the store the tables are for
+     * @param runBytes - max size of rows sorted in memory and of each result table
+     */
+    public TableBuilder(
+            @NotNull final File dir,
+            @NotNull final Config config,
+            final long runBytes) {
+        if (runBytes <= 0L) {
+            throw new IllegalArgumentException("Non-positive run size: " + runBytes);
+        }
+        this.dir = dir;
+        this.keyOrder = config.getKeyOrder();
+        this.force = config.getDurability() == Durability.SYNC;
+        this.runBytes = runBytes;
+        this.blobStore = new BlobStore(dir);
+        this.run = new TreeMap<>(keyOrder);
+    }
+
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        add(key, new Value(System.currentTimeMillis(), value.duplicate()), value.remaining());
+    }
+
+    /**
+     * Adds tombstone, which removes the key from the store on ingestion.
+     */
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        add(key, new Value(System.currentTimeMillis()), 0);
+    }
+
+    private void add(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value,
+            final int valueSize) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Already finished");
+        }
+        if (last != null && keyOrder.compare(last, key) >= 0) {
+            sorted = false;
+        }
+        last = key.duplicate();
+        run.put(last, value);
+        size += key.remaining() + Long.BYTES + valueSize;
+        if (size >= runBytes) {
+            spill();
+        }
+    }
+
+    private void spill() throws IOException {
+        if (run.isEmpty()) {
+            return;
+        }
+        final File file = new File(dir, RUN + runs.size() + SUFFIX);
+        write(file, Iterators.transform(run.entrySet().iterator(),
+                e -> new Cell(requireNonNull(e).getKey(), e.getValue())));
+        runs.add(file);
+        run = new TreeMap<>(keyOrder);
+        size = 0L;
+    }
+
+    /**
+     * Writes the rows left and returns result tables, which the builder no longer owns.
+     *
+     * @return tables in the order of their key ranges, which do not overlap
+     */
+    @NotNull
+    public List<File> finish() throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Already finished");
+        }
+        finished = true;
+        spill();
+        final List<File> result = new ArrayList<>(runs.size());
+        if (sorted) {
+            for (final File file : runs) {
+                final File table = new File(dir, TABLE + result.size() + SUFFIX);
+                Files.move(file.toPath(), table.toPath());
+                result.add(table);
+            }
+            runs.clear();
+            return result;
+        }
+        final List<SSTable> tables = new ArrayList<>(runs.size());
+        try {
+            final List<Iterator<Cell>> iters = new ArrayList<>(runs.size());
+            //Later runs are newer
+            for (int i = runs.size() - 1; i >= 0; i--) {
+                final SSTable table = new SSTable(runs.get(i), blobStore);
+                tables.add(table);
+                iters.add(table.iterator(ByteBuffer.allocate(0)));
+            }
+            final Iterator<Cell> cells = Iters.collapseEquals(
+                    new MergeIterator(iters, Cell.comparator(keyOrder)), Cell::getKey);
+            while (cells.hasNext()) {
+                final File table = new File(dir, TABLE + result.size() + SUFFIX);
+                write(table, new Bounded(cells));
+                result.add(table);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (final File table : result) {
+                Files.deleteIfExists(table.toPath());
+            }
+            throw e;
+        } finally {
+            for (final SSTable table : tables) {
+                table.close();
+            }
+            deleteRuns();
+        }
+        return result;
+    }
+
+    private void write(
+            @NotNull final File file,
+            @NotNull final Iterator<Cell> cells) throws IOException {
+        //Threshold zero keeps all values in rows, so the blob file is never created
+        try (BlobLog blobs = new BlobLog(blobStore.file(0), 0, 0L, Collections.emptySet(), false)) {
+            SSTable.serialize(file, cells, keyOrder, force, blobs);
+        }
+    }
+
+    private void deleteRuns() throws IOException {
+        for (final File file : runs) {
+            Files.deleteIfExists(file.toPath());
+        }
+        runs.clear();
+    }
+
+    /**
+     * Deletes runs of an unfinished build.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        run.clear();
+        deleteRuns();
+    }
+
+    /**
+     * Takes cells until they make up a run.
+     */
+    private final class Bounded implements Iterator<Cell> {
+        private final Iterator<Cell> cells;
+        private long written;
+
+        Bounded(@NotNull final Iterator<Cell> cells) {
+            this.cells = cells;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return written < runBytes && cells.hasNext();
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Run is full");
+            }
+            final Cell cell = cells.next();
+            written += cell.getKey().remaining() + Long.BYTES
+                    + (cell.getValue().isTombstone() ? 0 : cell.getValue().rawData().remaining());
+            return cell;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Key order, key range, timestamp range, number of tombstones, sampled keys and bytes referenced
+ * in each blob file of {@link SSTable} rows, stored in the table footer.
+ * Long keys are not kept: min key is cut to a prefix and max key is left unbounded.
+ */
+final class TableMeta {
+    static final int MAX_BOUND_SIZE = 256;
+    static final int MAX_SAMPLES = 128;
+    static final int SAMPLE_KEY_SIZE = 32;
+
+    @NotNull
+    private final KeyOrder order;
+    @Nullable
+    private final ByteBuffer minKey;
+    @Nullable
+    private final ByteBuffer maxKey;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final long tombstones;
+    @NotNull
+    private final List<Sample> samples;
+    @NotNull
+    private final Map<Integer, Long> blobs;
+
+    TableMeta(
+            @NotNull final KeyOrder order,
+            @Nullable final ByteBuffer minKey,
+            @Nullable final ByteBuffer maxKey,
+            final long minTimestamp,
+            final long maxTimestamp,
+            final long tombstones) {
+        this(order, minKey, maxKey, minTimestamp, maxTimestamp, tombstones, List.of(), Map.of());
+    }
+
+    TableMeta(
+            @NotNull final KeyOrder order,
+            @Nullable final ByteBuffer minKey,
+            @Nullable final ByteBuffer maxKey,
+            final long minTimestamp,
+            final long maxTimestamp,
+            final long tombstones,
+            @NotNull final List<Sample> samples,
+            @NotNull final Map<Integer, Long> blobs) {
+        this.order = order;
+        this.minKey = minKey == null ? null : lowerBound(minKey);
+        this.maxKey = maxKey == null || maxKey.remaining() > MAX_BOUND_SIZE ? null : maxKey;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        this.tombstones = tombstones;
+        this.samples = samples;
+        this.blobs = blobs;
+    }
+
+    @NotNull
+    static TableMeta empty(@NotNull final KeyOrder order) {
+        return new TableMeta(order, null, null, Long.MAX_VALUE, Long.MIN_VALUE, 0L);
+    }
+
+    @NotNull
+    KeyOrder getOrder() {
+        return order;
+    }
+
+    /**
+     * Lower bound of keys, null if the table is empty.
+     */
+    @Nullable
+    ByteBuffer getMinKey() {
+        return minKey == null ? null : minKey.duplicate();
+    }
+
+    /**
+     * Max key, null if the table is empty or it is too long to keep.
+     */
+    @Nullable
+    ByteBuffer getMaxKey() {
+        return maxKey == null ? null : maxKey.duplicate();
+    }
+
+    boolean isEmpty() {
+        return minKey == null;
+    }
+
+    long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * Number of tombstones or -1 if unknown.
+     */
+    long getTombstones() {
+        return tombstones;
+    }
+
+    /**
+     * Keys of evenly spaced rows, the first row included. Empty for tables before version 5.
+     */
+    @NotNull
+    List<Sample> getSamples() {
+        return samples;
+    }
+
+    /**
+     * Bytes of values referenced by rows in each blob file by its generation.
+     */
+    @NotNull
+    Map<Integer, Long> getBlobs() {
+        return blobs;
+    }
+
+    /**
+     * Counts samples with keys less than the given one.
+     */
+    int sampleRank(@NotNull final ByteBuffer key) {
+        int l = 0;
+        int r = samples.size();
+        while (l < r) {
+            final int med = (l + r) >>> 1;
+            if (order.compare(samples.get(med).key, key) < 0) {
+                l = med + 1;
+            } else {
+                r = med;
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Checks whether the table key range lies within [from, to).
+     */
+    boolean within(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        return isEmpty()
+                || order.compare(minKey, from) >= 0 && (to == null || maxKey != null && order.compare(maxKey, to) < 0);
+    }
+
+    /**
+     * Checks whether all keys of the table are less than the given one.
+     */
+    boolean before(@NotNull final ByteBuffer key) {
+        return isEmpty() || maxKey != null && order.compare(maxKey, key) < 0;
+    }
+
+    /**
+     * Checks whether key ranges of the tables intersect.
+     */
+    boolean overlaps(@NotNull final TableMeta other) {
+        return !isEmpty() && !other.isEmpty()
+                && (other.maxKey == null || order.compare(minKey, other.maxKey) <= 0)
+                && (maxKey == null || order.compare(other.minKey, maxKey) <= 0);
+    }
+
+    /**
+     * Checks whether key lies within the table key range.
+     */
+    boolean mayContain(@NotNull final ByteBuffer key) {
+        return !isEmpty()
+                && order.compare(minKey, key) <= 0
+                && (maxKey == null || order.compare(maxKey, key) >= 0);
+    }
+
+    /**
+     * Checks whether the table key range intersects [from, to).
+     */
+    boolean overlaps(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        return !isEmpty()
+                && (maxKey == null || order.compare(maxKey, from) >= 0)
+                && (to == null || order.compare(minKey, to) < 0);
+    }
+
+    int serializedSize() {
+        int size = Integer.BYTES + 3 * Long.BYTES + 2 * Integer.BYTES
+                + (isEmpty() ? 0 : minKey.remaining())
+                + (maxKey == null ? 0 : maxKey.remaining())
+                + Integer.BYTES;
+        for (final Sample sample : samples) {
+            size += 2 * Integer.BYTES + Long.BYTES + sample.key.remaining();
+        }
+        return size + Integer.BYTES + blobs.size() * (Integer.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Structure of meta.
+     * order(Integer)|minTimestamp(Long)|maxTimestamp(Long)|tombstones(Long)|
+     * minKeySize(Integer)|minKey|maxKeySize(Integer)|maxKey|
+     * samples(Integer)|[row(Integer)|offset(Long)|keySize(Integer)|key]|
+     * blobs(Integer)|[gen(Integer)|bytes(Long)]
+     * minKeySize is -1 for empty table, maxKeySize is -1 for unbounded range.
+     * Tables of version 2 have no order and are sorted in {@link KeyOrder#SIGNED} order,
+     * tables before version 4 have no number of tombstones, before version 5 have no samples
+     * and before version 6 have no blobs.
+     */
+    @NotNull
+    ByteBuffer serialize() {
+        final ByteBuffer buf = ByteBuffer.allocate(serializedSize())
+                .putInt(order.id())
+                .putLong(minTimestamp)
+                .putLong(maxTimestamp)
+                .putLong(tombstones);
+        putKey(buf, minKey);
+        putKey(buf, maxKey);
+        buf.putInt(samples.size());
+        for (final Sample sample : samples) {
+            buf.putInt(sample.row).putLong(sample.offset);
+            putKey(buf, sample.key);
+        }
+        buf.putInt(blobs.size());
+        blobs.forEach((gen, bytes) -> buf.putInt(gen).putLong(bytes));
+        return buf.flip();
+    }
+
+    @NotNull
+    static TableMeta deserialize(
+            @NotNull final ByteBuffer buf,
+            final int version) {
+        final KeyOrder order = version < 3 ? KeyOrder.SIGNED : KeyOrder.byId(buf.getInt());
+        final long minTimestamp = buf.getLong();
+        final long maxTimestamp = buf.getLong();
+        final long tombstones = version < 4 ? -1L : buf.getLong();
+        final ByteBuffer minKey = getKey(buf);
+        if (minKey == null) {
+            return empty(order);
+        }
+        final ByteBuffer maxKey = getKey(buf);
+        if (version < 5) {
+            return new TableMeta(order, minKey, maxKey, minTimestamp, maxTimestamp, tombstones);
+        }
+        final int count = buf.getInt();
+        final List<Sample> samples = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int row = buf.getInt();
+            final long offset = buf.getLong();
+            samples.add(new Sample(requireNonNull(getKey(buf)), row, offset));
+        }
+        final Map<Integer, Long> blobs = new TreeMap<>();
+        if (version >= 6) {
+            final int blobCount = buf.getInt();
+            for (int i = 0; i < blobCount; i++) {
+                blobs.put(buf.getInt(), buf.getLong());
+            }
+        }
+        return new TableMeta(order, minKey, maxKey, minTimestamp, maxTimestamp, tombstones, samples, blobs);
+    }
+
+    /**
+     * Prefix of a key is never greater than the key itself.
+     */
+    @NotNull
+    private static ByteBuffer lowerBound(@NotNull final ByteBuffer key) {
+        return prefix(key, MAX_BOUND_SIZE);
+    }
+
+    @NotNull
+    private static ByteBuffer prefix(
+            @NotNull final ByteBuffer key,
+            final int size) {
+        if (key.remaining() <= size) {
+            return key;
+        }
+        final ByteBuffer copy = ByteBuffer.allocate(size);
+        copy.put(key.duplicate().limit(key.position() + size));
+        return copy.flip();
+    }
+
+    private static void putKey(
+            @NotNull final ByteBuffer buf,
+            @Nullable final ByteBuffer key) {
+        if (key == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(key.remaining()).put(key.duplicate());
+        }
+    }
+
+    @Nullable
+    private static ByteBuffer getKey(@NotNull final ByteBuffer buf) {
+        final int size = buf.getInt();
+        if (size < 0) {
+            return null;
+        }
+        final ByteBuffer result = buf.duplicate();
+        result.limit(result.position() + size);
+        buf.position(buf.position() + size);
+        return result.slice();
+    }
+
+    /**
+     * Prefix of a row key with the row number and the row offset in the table.
+     */
+    static final class Sample {
+        @NotNull
+        final ByteBuffer key;
+        final int row;
+        final long offset;
+
+        Sample(
+                @NotNull final ByteBuffer key,
+                final int row,
+                final long offset) {
+            this.key = key;
+            this.row = row;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Collects meta of rows passed in ascending key order.
+     * Samples every interval-th row, the interval doubles whenever there are too many samples.
+     */
+    static final class Builder {
+        private final KeyOrder order;
+        private ByteBuffer minKey;
+        private ByteBuffer maxKey;
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private long tombstones;
+        private final List<Sample> samples = new ArrayList<>();
+        private int rows;
+        private int interval = 1;
+        private final Map<Integer, Long> blobs = new TreeMap<>();
+
+        Builder(@NotNull final KeyOrder order) {
+            this.order = order;
+        }
+
+        void add(
+                @NotNull final ByteBuffer key,
+                final long timestamp,
+                final boolean tombstone,
+                final long offset) {
+            if (tombstone) {
+                tombstones++;
+            }
+            if (rows % interval == 0) {
+                samples.add(new Sample(prefix(key, SAMPLE_KEY_SIZE).duplicate(), rows, offset));
+                if (samples.size() > MAX_SAMPLES) {
+                    for (int i = 1; 2 * i < samples.size(); i++) {
+                        samples.set(i, samples.get(2 * i));
+                    }
+                    samples.subList((samples.size() + 1) / 2, samples.size()).clear();
+                    interval *= 2;
+                }
+            }
+            rows++;
+            if (minKey == null) {
+                minKey = lowerBound(key);
+            }
+            maxKey = key;
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+        }
+
+        void addBlob(
+                final int gen,
+                final int length) {
+            blobs.merge(gen, (long) length, Long::sum);
+        }
+
+        @NotNull
+        TableMeta build() {
+            return minKey == null ? empty(order)
+                    : new TableMeta(order, minKey, maxKey, minTimestamp, maxTimestamp, tombstones, samples, blobs);
+        }
+    }
+}
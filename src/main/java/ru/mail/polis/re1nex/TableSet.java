@@ -0,0 +1,210 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable version of the store: current {@link MemTable}, memtables waiting for flush
+ * and {@link SSTable}s by generation.
+ * A version holds a reference to each of its tables and readers hold references to the version,
+ * so a table replaced by compaction is closed and deleted only after the last reader is done.
+ */
+final class TableSet {
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final MemTable memTable;
+    private final List<MemTable> flushing;
+    private final NavigableMap<Integer, SSTable> tables;
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private volatile int overlapping = -1;
+
+    /**
+     * Creates version owning given references to tables.
+     */
+    TableSet(
+            @NotNull final MemTable memTable,
+            @NotNull final NavigableMap<Integer, SSTable> tables) {
+        this(memTable, Collections.emptyList(), tables);
+    }
+
+    private TableSet(
+            @NotNull final MemTable memTable,
+            @NotNull final List<MemTable> flushing,
+            @NotNull final NavigableMap<Integer, SSTable> tables) {
+        this.memTable = memTable;
+        this.flushing = Collections.unmodifiableList(flushing);
+        this.tables = Collections.unmodifiableNavigableMap(tables);
+    }
+
+    @NotNull
+    MemTable memTable() {
+        return memTable;
+    }
+
+    /**
+     * Memtables waiting for flush from the newest.
+     */
+    @NotNull
+    List<MemTable> flushing() {
+        return flushing;
+    }
+
+    /**
+     * Current memtable followed by memtables waiting for flush, from the newest.
+     */
+    @NotNull
+    List<MemTable> memTables() {
+        final List<MemTable> result = new ArrayList<>(flushing.size() + 1);
+        result.add(memTable);
+        result.addAll(flushing);
+        return result;
+    }
+
+    @NotNull
+    NavigableMap<Integer, SSTable> tables() {
+        return tables;
+    }
+
+    /**
+     * Number of tables with key ranges overlapping another table, which compaction has to merge.
+     */
+    int overlapping() {
+        if (overlapping < 0) {
+            overlapping = countOverlapping();
+        }
+        return overlapping;
+    }
+
+    /**
+     * Sweeps tables by min key: a table overlaps an earlier one if it starts before the max key seen,
+     * and a later one if the next table starts before its own max key. Unknown max keys overlap everything after.
+     */
+    private int countOverlapping() {
+        final List<TableMeta> metas = new ArrayList<>(tables.size());
+        for (final SSTable table : tables.values()) {
+            if (!table.meta().isEmpty()) {
+                metas.add(table.meta());
+            }
+        }
+        if (metas.size() < 2) {
+            return 0;
+        }
+        final KeyOrder order = metas.get(0).getOrder();
+        metas.sort((a, b) -> order.compare(a.getMinKey(), b.getMinKey()));
+        int result = 0;
+        ByteBuffer seenMax = null;
+        for (int i = 0; i < metas.size(); i++) {
+            final ByteBuffer min = metas.get(i).getMinKey();
+            final ByteBuffer max = metas.get(i).getMaxKey();
+            final boolean afterEarlier = i > 0 && (seenMax == null || order.compare(min, seenMax) <= 0);
+            final boolean beforeLater = i + 1 < metas.size()
+                    && (max == null || order.compare(metas.get(i + 1).getMinKey(), max) <= 0);
+            if (afterEarlier || beforeLater) {
+                result++;
+            }
+            if (i == 0 || seenMax != null && (max == null || order.compare(max, seenMax) > 0)) {
+                seenMax = max;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates next version where the current memtable waits for flush and the fresh one takes writes.
+     */
+    @NotNull
+    TableSet frozen(@NotNull final MemTable fresh) {
+        final List<MemTable> next = new ArrayList<>(flushing.size() + 1);
+        next.add(memTable);
+        next.addAll(flushing);
+        return new TableSet(fresh, next, retained(Collections.emptySet()));
+    }
+
+    /**
+     * Creates next version where the flushed memtable is replaced with its table.
+     */
+    @NotNull
+    TableSet flushed(
+            @NotNull final MemTable flushed,
+            final int gen,
+            @NotNull final SSTable table) {
+        final List<MemTable> next = new ArrayList<>(flushing);
+        next.remove(flushed);
+        final NavigableMap<Integer, SSTable> nextTables = retained(Collections.emptySet());
+        nextTables.put(gen, table);
+        return new TableSet(memTable, next, nextTables);
+    }
+
+    /**
+     * Creates next version where the compacted tables are replaced with outputs owning their references.
+     */
+    @NotNull
+    TableSet compacted(
+            @NotNull final Collection<Integer> inputs,
+            @NotNull final Map<Integer, SSTable> outputs) {
+        final NavigableMap<Integer, SSTable> nextTables = retained(inputs);
+        nextTables.putAll(outputs);
+        return new TableSet(memTable, flushing, nextTables);
+    }
+
+    @NotNull
+    private NavigableMap<Integer, SSTable> retained(@NotNull final Collection<Integer> excluded) {
+        final NavigableMap<Integer, SSTable> result = new TreeMap<>();
+        for (final Map.Entry<Integer, SSTable> entry : tables.entrySet()) {
+            if (!excluded.contains(entry.getKey())) {
+                entry.getValue().retain();
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tries to take a reference, fails if the version is already released.
+     */
+    boolean retain() {
+        while (true) {
+            final int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() throws IOException {
+        if (refs.decrementAndGet() == 0) {
+            for (final SSTable table : tables.values()) {
+                table.release();
+            }
+        }
+    }
+
+    /**
+     * Releases the reference taken for the owner when it is cleaned or becomes unreachable, whichever is first.
+     */
+    @NotNull
+    Cleaner.Cleanable pin(@NotNull final Object owner) {
+        return CLEANER.register(owner, () -> {
+            try {
+                release();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
@@ -3,31 +3,85 @@ package ru.mail.polis.re1nex;
 import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 
 final class Value implements Comparable<Value> {
     private final long timestamp;
     private final ByteBuffer data;
+    private final BlobRef blob;
+    private final boolean operand;
 
     Value(final long timestamp, @Nullable final ByteBuffer data) {
+        this(timestamp, data, false);
+    }
+
+    private Value(final long timestamp, @Nullable final ByteBuffer data, final boolean operand) {
         assert timestamp > 0L;
         this.timestamp = timestamp;
         this.data = data;
+        this.blob = null;
+        this.operand = operand;
     }
 
     Value(final long timestamp) {
         assert timestamp > 0L;
         this.timestamp = timestamp;
         this.data = null;
+        this.blob = null;
+        this.operand = false;
+    }
+
+    /**
+     * Value stored in a blob file, read on demand.
+     */
+    Value(final long timestamp, @NotNull final BlobRef blob) {
+        assert timestamp > 0L;
+        this.timestamp = timestamp;
+        this.data = null;
+        this.blob = blob;
+        this.operand = false;
+    }
+
+    /**
+     * Operand of {@link MergeOperator} to apply to older values of the key, always kept in rows.
+     */
+    @NotNull
+    static Value operand(final long timestamp, @NotNull final ByteBuffer data) {
+        return new Value(timestamp, data, true);
     }
 
     boolean isTombstone() {
-        return data == null;
+        return data == null && blob == null;
+    }
+
+    boolean isOperand() {
+        return operand;
     }
 
     ByteBuffer getData() {
+        return rawData().asReadOnlyBuffer();
+    }
+
+    /**
+     * Data without read-only view, callers must not modify it.
+     */
+    ByteBuffer rawData() {
         assert !isTombstone();
-        return data.asReadOnlyBuffer();
+        if (blob == null) {
+            return data;
+        }
+        try {
+            return blob.read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Nullable
+    BlobRef blobRef() {
+        return blob;
     }
 
     @Override
@@ -0,0 +1,147 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Back-pressure on writes. Between slowdown and stop table counts each write is delayed
+ * proportionally to the distance to stop, up to {@link #MAX_DELAY_NANOS}. At stop table count
+ * or max pending flushes writes wait until background flush or compaction catches up.
+ */
+final class WriteController {
+    static final long MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int maxPendingFlushes;
+    private final int slowdownTables;
+    private final int stopTables;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final LongAdder delayedWrites = new LongAdder();
+    private final LongAdder delayNanos = new LongAdder();
+    private final LongAdder stalledWrites = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+
+    private volatile int pendingFlushes;
+    private volatile int tables;
+    private volatile long compactionDebt;
+    private volatile Throwable failure;
+
+    WriteController(@NotNull final Config config) {
+        this.maxPendingFlushes = config.getMaxPendingFlushes();
+        this.slowdownTables = config.getSlowdownTables();
+        this.stopTables = config.getStopTables();
+    }
+
+    /**
+     * Publishes new state of the store and wakes up stopped writers.
+     */
+    void update(@NotNull final TableSet set) {
+        long debt = 0L;
+        final int overlapping = set.overlapping();
+        if (overlapping > 0) {
+            for (final SSTable table : set.tables().values()) {
+                debt += table.sizeInBytes();
+            }
+        }
+        lock.lock();
+        try {
+            pendingFlushes = set.flushing().size();
+            tables = overlapping;
+            compactionDebt = debt;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fails all current and future writes, background work can't make progress.
+     */
+    void fail(@NotNull final Throwable cause) {
+        lock.lock();
+        try {
+            failure = cause;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delays or stops the calling writer according to the current state.
+     */
+    void beforeWrite() throws IOException {
+        checkFailure();
+        if (state() == WriteStats.State.STOPPED) {
+            final long start = System.nanoTime();
+            lock.lock();
+            try {
+                while (state() == WriteStats.State.STOPPED && failure == null) {
+                    changed.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writes are stopped");
+            } finally {
+                lock.unlock();
+            }
+            stalledWrites.increment();
+            stallNanos.add(System.nanoTime() - start);
+            checkFailure();
+        }
+        final long delay = delay();
+        if (delay > 0L) {
+            LockSupport.parkNanos(delay);
+            delayedWrites.increment();
+            delayNanos.add(delay);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        final Throwable cause = failure;
+        if (cause != null) {
+            throw new IOException("Background flush or compaction failed", cause);
+        }
+    }
+
+    private long delay() {
+        if (slowdownTables == 0 || tables < slowdownTables) {
+            return 0L;
+        }
+        return MAX_DELAY_NANOS * (tables - slowdownTables + 1) / (stopTables - slowdownTables + 1);
+    }
+
+    @NotNull
+    private WriteStats.State state() {
+        if (pendingFlushes >= maxPendingFlushes || stopTables > 0 && tables >= stopTables) {
+            return WriteStats.State.STOPPED;
+        }
+        return slowdownTables > 0 && tables >= slowdownTables ? WriteStats.State.SLOWDOWN : WriteStats.State.NORMAL;
+    }
+
+    /**
+     * Whether the next write may wait for back-pressure.
+     */
+    boolean mayBlock() {
+        return state() != WriteStats.State.NORMAL;
+    }
+
+    @Nullable
+    Throwable failure() {
+        return failure;
+    }
+
+    @NotNull
+    WriteStats stats() {
+        return new WriteStats(state(), pendingFlushes, tables, compactionDebt,
+                delayedWrites.sum(), delayNanos.sum(), stalledWrites.sum(), stallNanos.sum());
+    }
+}
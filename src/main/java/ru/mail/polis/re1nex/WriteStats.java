@@ -0,0 +1,101 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Snapshot of write back-pressure state of {@link NewDAO}.
+ */
+public final class WriteStats {
+    /**
+     * How writes are let through.
+     */
+    public enum State {
+        NORMAL,
+        SLOWDOWN,
+        STOPPED
+    }
+
+    private final State state;
+    private final int pendingFlushes;
+    private final int tables;
+    private final long compactionDebtBytes;
+    private final long delayedWrites;
+    private final long delayNanos;
+    private final long stalledWrites;
+    private final long stallNanos;
+
+    WriteStats(
+            @NotNull final State state,
+            final int pendingFlushes,
+            final int tables,
+            final long compactionDebtBytes,
+            final long delayedWrites,
+            final long delayNanos,
+            final long stalledWrites,
+            final long stallNanos) {
+        this.state = state;
+        this.pendingFlushes = pendingFlushes;
+        this.tables = tables;
+        this.compactionDebtBytes = compactionDebtBytes;
+        this.delayedWrites = delayedWrites;
+        this.delayNanos = delayNanos;
+        this.stalledWrites = stalledWrites;
+        this.stallNanos = stallNanos;
+    }
+
+    @NotNull
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Memtables waiting for flush.
+     */
+    public int getPendingFlushes() {
+        return pendingFlushes;
+    }
+
+    /**
+     * Tables with key ranges overlapping another table, the ones compaction has to merge.
+     */
+    public int getTables() {
+        return tables;
+    }
+
+    /**
+     * Bytes a compaction would have to rewrite, zero for a single table.
+     */
+    public long getCompactionDebtBytes() {
+        return compactionDebtBytes;
+    }
+
+    /**
+     * Writes slowed down so far and their total delay.
+     */
+    public long getDelayedWrites() {
+        return delayedWrites;
+    }
+
+    public long getDelayNanos() {
+        return delayNanos;
+    }
+
+    /**
+     * Writes stopped so far until flush or compaction caught up and their total wait.
+     */
+    public long getStalledWrites() {
+        return stalledWrites;
+    }
+
+    public long getStallNanos() {
+        return stallNanos;
+    }
+
+    @Override
+    public String toString() {
+        return state + " pendingFlushes=" + pendingFlushes + " tables=" + tables
+                + " compactionDebtBytes=" + compactionDebtBytes
+                + " delayed=" + delayedWrites + "/" + delayNanos + "ns"
+                + " stalled=" + stalledWrites + "/" + stallNanos + "ns";
+    }
+}
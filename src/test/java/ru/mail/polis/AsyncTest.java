@@ -0,0 +1,153 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Asynchronous API tests.
+ */
+class AsyncTest extends TestBase {
+    /**
+     * Requests records one by one and cancels after the limit.
+     */
+    private static final class Collector implements Flow.Subscriber<Record> {
+        private final List<ByteBuffer> keys = new ArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final int limit;
+        private Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        Collector(final int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void onSubscribe(@NotNull final Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(@NotNull final Record item) {
+            keys.add(item.getKey());
+            if (keys.size() == limit) {
+                subscription.cancel();
+                done.countDown();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(@NotNull final Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        List<ByteBuffer> await() throws InterruptedException {
+            assertTrue(done.await(1, TimeUnit.MINUTES));
+            assertNull(error);
+            return keys;
+        }
+    }
+
+    @Test
+    void pointCalls(@TempDir File data) throws Exception {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data)) {
+            final List<CompletableFuture<Void>> writes = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                writes.add(dao.upsertAsync(key, value));
+                expected.put(key, value);
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+            final ByteBuffer removed = expected.firstKey();
+            dao.removeAsync(removed).join();
+            expected.remove(removed);
+
+            for (final ByteBuffer key : expected.keySet()) {
+                assertEquals(expected.get(key), dao.getAsync(key).join());
+            }
+            final CompletionException missing = assertThrows(CompletionException.class,
+                    () -> dao.getAsync(removed).join());
+            assertTrue(missing.getCause() instanceof NoSuchElementException);
+            assertThrows(CompletionException.class, () -> dao.getAsync(randomKey()).join());
+        }
+    }
+
+    @Test
+    void range(@TempDir File data) throws Exception {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data)) {
+            for (int i = 0; i < 10_000; i++) {
+                final ByteBuffer key = randomKey();
+                dao.upsert(key, randomValue());
+                expected.put(key, key);
+            }
+            final Collector all = new Collector(Integer.MAX_VALUE);
+            dao.rangeAsync(ByteBuffer.allocate(0), null).subscribe(all);
+            assertEquals(new ArrayList<>(expected.keySet()), all.await());
+
+            final Collector some = new Collector(10);
+            final ByteBuffer from = new ArrayList<>(expected.keySet()).get(100);
+            dao.rangeAsync(from, null).subscribe(some);
+            assertEquals(new ArrayList<>(expected.tailMap(from).keySet()).subList(0, 10), some.await());
+        }
+    }
+
+    @Test
+    void badRequest(@TempDir File data) throws Exception {
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(randomKey(), randomValue());
+            final CompletableFuture<Throwable> error = new CompletableFuture<>();
+            dao.rangeAsync(ByteBuffer.allocate(0), null).subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(@NotNull final Flow.Subscription subscription) {
+                    subscription.request(0);
+                }
+
+                @Override
+                public void onNext(@NotNull final Record item) {
+                    error.complete(null);
+                }
+
+                @Override
+                public void onError(@NotNull final Throwable throwable) {
+                    error.complete(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    error.complete(null);
+                }
+            });
+            assertTrue(error.get(1, TimeUnit.MINUTES) instanceof IllegalArgumentException);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Key-only scan and count tests.
+ */
+class CountTest extends TestBase {
+    private static void assertKeys(
+            @NotNull final DAO dao,
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) throws IOException {
+        final NavigableSet<ByteBuffer> keys = expected.subMap(from, true, to, false).navigableKeySet();
+        final Iterator<ByteBuffer> actual = dao.keys(from, to);
+        for (final ByteBuffer key : keys) {
+            assertEquals(key, actual.next());
+        }
+        assertFalse(actual.hasNext());
+        assertEquals(keys.size(), dao.count(from, to));
+    }
+
+    private static void assertRanges(
+            @NotNull final DAO dao,
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            @NotNull final List<ByteBuffer> keys) throws IOException {
+        assertEquals(expected.size(), dao.count(ByteBuffer.allocate(0), null));
+        for (int i = 0; i < 10; i++) {
+            final ByteBuffer a = keys.get(i * keys.size() / 10);
+            final ByteBuffer b = keys.get((keys.size() - 1 - i * 7) % keys.size());
+            final ByteBuffer from = a.compareTo(b) < 0 ? a : b;
+            final ByteBuffer to = a.compareTo(b) < 0 ? b : a;
+            assertKeys(dao, expected, from, to);
+        }
+        assertEquals(0L, dao.count(keys.get(1), keys.get(1)));
+    }
+
+    @Test
+    void severalTables(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try (DAO dao = DAOFactory.create(data)) {
+            for (int i = 0; i < 10_000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                keys.add(key);
+                dao.upsert(key, value);
+                map.put(key, value);
+            }
+            assertRanges(dao, map, keys);
+
+            //Disjoint tables without tombstones
+            dao.compact();
+            assertRanges(dao, map, keys);
+
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = keys.get(i * 7);
+                dao.remove(key);
+                map.remove(key);
+            }
+            assertRanges(dao, map, keys);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertRanges(dao, map, keys);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ru.mail.polis;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Tests for {@link DAO#cursor()}.
+ */
+class CursorTest extends TestBase {
+    private static void assertScan(
+            @NotNull final Cursor cursor,
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            @NotNull final ByteBuffer from) throws IOException {
+        cursor.seek(from);
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.tailMap(from).entrySet()) {
+            assertEquals(entry.getKey(), cursor.key());
+            assertEquals(entry.getValue(), cursor.value());
+            cursor.next();
+        }
+        assertFalse(cursor.isValid());
+    }
+
+    @Test
+    void severalTables(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int round = 0; round < 4; round++) {
+            try (DAO dao = DAOFactory.create(data)) {
+                for (int i = 0; i < 100; i++) {
+                    final ByteBuffer key = randomKey();
+                    final ByteBuffer value = randomValue();
+                    keys.add(key);
+                    dao.upsert(key, value);
+                    map.put(key, value);
+                }
+                for (int i = 0; i < 30; i++) {
+                    final ByteBuffer key = keys.get(i * keys.size() / 30);
+                    dao.remove(key);
+                    map.remove(key);
+                }
+                if (round % 2 == 0) {
+                    final ByteBuffer overwritten = keys.get(keys.size() / 2);
+                    final ByteBuffer value = randomValue();
+                    dao.upsert(overwritten, value);
+                    map.put(overwritten, value);
+                }
+            }
+        }
+
+        try (DAO dao = DAOFactory.create(data); Cursor cursor = dao.cursor()) {
+            assertScan(cursor, map, ByteBuffer.allocate(0));
+            assertScan(cursor, map, Iterators.get(map.keySet().iterator(), map.size() / 2));
+            assertScan(cursor, map, map.lastKey());
+        }
+    }
+
+    @Test
+    void allRemoved(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            final ByteBuffer key = randomKey();
+            dao.upsert(key, randomValue());
+            dao.remove(key);
+            try (Cursor cursor = dao.cursor()) {
+                cursor.seek(ByteBuffer.allocate(0));
+                assertFalse(cursor.isValid());
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Multi-get tests.
+ */
+class GetAllTest extends TestBase {
+    @Test
+    void empty(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            assertTrue(dao.getAll(new ArrayList<>()).isEmpty());
+            final List<ByteBuffer> keys = new ArrayList<>();
+            keys.add(randomKey());
+            assertTrue(dao.getAll(keys).isEmpty());
+        }
+    }
+
+    @Test
+    void severalTables(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> expected = new HashMap<>();
+        final List<ByteBuffer> written = new ArrayList<>();
+        try (DAO dao = DAOFactory.create(data)) {
+            for (int i = 0; i < 20_000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                expected.put(key, value);
+                written.add(key);
+                if (i % 4 == 0) {
+                    final ByteBuffer overwritten = written.get(i / 2);
+                    if (i % 8 == 0) {
+                        dao.remove(overwritten);
+                        expected.remove(overwritten);
+                    } else {
+                        final ByteBuffer fresh = randomValue();
+                        dao.upsert(overwritten, fresh);
+                        expected.put(overwritten, fresh);
+                    }
+                }
+            }
+            assertBatches(dao, expected, written);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertBatches(dao, expected, written);
+        }
+    }
+
+    private static void assertBatches(
+            final DAO dao,
+            final Map<ByteBuffer, ByteBuffer> expected,
+            final List<ByteBuffer> written) throws IOException {
+        for (int batch = 0; batch < 50; batch++) {
+            final List<ByteBuffer> keys = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                keys.add(written.get((batch * 7919 + i * 104_729) % written.size()));
+            }
+            keys.add(randomKey());
+            keys.add(keys.get(0));
+            final Map<ByteBuffer, ByteBuffer> actual = dao.getAll(keys);
+            int found = 0;
+            for (final ByteBuffer key : keys) {
+                final ByteBuffer value = expected.get(key);
+                assertEquals(value, actual.get(key));
+                if (value != null) {
+                    found++;
+                }
+            }
+            assertTrue(actual.size() <= found);
+        }
+    }
+}
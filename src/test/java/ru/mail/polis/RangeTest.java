@@ -0,0 +1,76 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Range scan tests over data spread across several tables.
+ */
+class RangeTest extends TestBase {
+    private static void assertRange(
+            @NotNull final DAO dao,
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) throws IOException {
+        final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> expectedIter =
+                expected.subMap(from, true, to, false).entrySet().iterator();
+        final Iterator<Record> actualIter = dao.range(from, to);
+        while (expectedIter.hasNext()) {
+            final Map.Entry<ByteBuffer, ByteBuffer> entry = expectedIter.next();
+            final Record record = actualIter.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(actualIter.hasNext());
+    }
+
+    @Test
+    void severalTables(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int round = 0; round < 5; round++) {
+            try (DAO dao = DAOFactory.create(data)) {
+                for (int i = 0; i < 100; i++) {
+                    final ByteBuffer key = randomKey();
+                    final ByteBuffer value = randomValue();
+                    keys.add(key);
+                    dao.upsert(key, value);
+                    map.put(key, value);
+                }
+                for (int i = 0; i < 20; i++) {
+                    final ByteBuffer key = keys.get(i * keys.size() / 20);
+                    dao.remove(key);
+                    map.remove(key);
+                }
+            }
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            for (int i = 0; i + 1 < keys.size(); i += 37) {
+                final ByteBuffer a = keys.get(i);
+                final ByteBuffer b = keys.get(i + 1);
+                if (a.compareTo(b) < 0) {
+                    assertRange(dao, map, a, b);
+                } else {
+                    assertRange(dao, map, b, a);
+                }
+            }
+            assertFalse(dao.range(map.lastKey(), map.firstKey()).hasNext());
+            assertFalse(dao.range(map.firstKey(), map.firstKey()).hasNext());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Network server tests.
+ */
+class ServerTest extends TestBase {
+    @NotNull
+    private static SocketChannel connect(@NotNull final Server server) throws IOException {
+        return SocketChannel.open(new InetSocketAddress("localhost", server.port()));
+    }
+
+    private static void send(
+            @NotNull final SocketChannel channel,
+            @NotNull final ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer expect(
+            @NotNull final SocketChannel channel,
+            final byte status) throws IOException {
+        final ByteBuffer frame = Protocol.readFrame(channel);
+        assertEquals(status, frame.get());
+        return frame;
+    }
+
+    @Test
+    void pipelinedBatches(@TempDir final File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data);
+             Server server = new Server(dao, new InetSocketAddress("localhost", 0), 2)) {
+            server.start();
+            final List<List<Record>> batches = new ArrayList<>();
+            try (SocketChannel channel = connect(server)) {
+                for (int i = 0; i < 10; i++) {
+                    final List<Record> batch = new ArrayList<>();
+                    for (int j = 0; j < 50; j++) {
+                        batch.add(Record.of(randomKey(), randomValue()));
+                    }
+                    batches.add(batch);
+                    send(channel, Protocol.putRequest(batch));
+                }
+                for (final List<Record> batch : batches) {
+                    final List<ByteBuffer> keys = new ArrayList<>();
+                    for (final Record record : batch) {
+                        keys.add(record.getKey());
+                    }
+                    keys.add(randomKey());
+                    send(channel, Protocol.getRequest(keys));
+                }
+                send(channel, Protocol.removeRequest(Collections.singletonList(batches.get(0).get(0).getKey())));
+                send(channel, Protocol.getRequest(Collections.singletonList(batches.get(0).get(0).getKey())));
+
+                for (int i = 0; i < batches.size(); i++) {
+                    assertEquals(0, expect(channel, Protocol.OK).remaining());
+                }
+                for (final List<Record> batch : batches) {
+                    final ByteBuffer response = expect(channel, Protocol.OK);
+                    assertEquals(batch.size() + 1, response.getInt());
+                    for (final Record record : batch) {
+                        assertEquals(record.getValue(), Protocol.getBytes(response));
+                    }
+                    assertNull(Protocol.getBytes(response));
+                }
+                expect(channel, Protocol.OK);
+                final ByteBuffer removed = expect(channel, Protocol.OK);
+                assertEquals(1, removed.getInt());
+                assertNull(Protocol.getBytes(removed));
+            }
+            final Record stored = batches.get(1).get(0);
+            assertEquals(stored.getValue(), dao.get(stored.getKey()));
+        }
+    }
+
+    @Test
+    void malformedFrameCloses(@TempDir final File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data);
+             Server server = new Server(dao, new InetSocketAddress("localhost", 0), 1)) {
+            server.start();
+            try (SocketChannel channel = connect(server)) {
+                send(channel, ByteBuffer.allocate(Integer.BYTES + 1).putInt(1).put((byte) 42).flip());
+                assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+            }
+            final ByteBuffer key = randomKey();
+            try (SocketChannel channel = connect(server)) {
+                send(channel, Protocol.getRequest(Collections.singletonList(key)));
+                final ByteBuffer response = expect(channel, Protocol.OK);
+                assertEquals(1, response.getInt());
+                assertNull(Protocol.getBytes(response));
+            }
+        }
+    }
+
+    @Test
+    void streamedRange(@TempDir final File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data);
+             Server server = new Server(dao, new InetSocketAddress("localhost", 0), 1)) {
+            for (int i = 0; i < 20_000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                expected.put(key, value);
+            }
+            server.start();
+            final ByteBuffer from = expected.keySet().stream().skip(100).findFirst().orElseThrow();
+            try (SocketChannel channel = connect(server)) {
+                send(channel, Protocol.rangeRequest(from, null, -1));
+                send(channel, Protocol.rangeRequest(from, null, 10));
+                assertEquals(expected.tailMap(from, true), readRange(channel));
+
+                final Map<ByteBuffer, ByteBuffer> limited = readRange(channel);
+                assertEquals(10, limited.size());
+                assertEquals(from, limited.keySet().iterator().next());
+            }
+        }
+    }
+
+    @NotNull
+    private static Map<ByteBuffer, ByteBuffer> readRange(@NotNull final SocketChannel channel) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> result = new TreeMap<>();
+        while (true) {
+            final ByteBuffer frame = Protocol.readFrame(channel);
+            final byte status = frame.get();
+            if (status == Protocol.OK) {
+                return result;
+            }
+            assertEquals(Protocol.CHUNK, status);
+            final int count = frame.getInt();
+            for (int i = 0; i < count; i++) {
+                result.put(Protocol.getBytes(frame), Protocol.getBytes(frame));
+            }
+        }
+    }
+
+    @Test
+    void loadClient(@TempDir final File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data);
+             Server server = new Server(dao, new InetSocketAddress("localhost", 0), 2)) {
+            server.start();
+            final long ops = LoadClient.run(new InetSocketAddress("localhost", server.port()), 3, 20, 25, 4, 64);
+            assertEquals(3L * 20 * 25 * 2, ops);
+        }
+    }
+}
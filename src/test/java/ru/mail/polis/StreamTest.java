@@ -0,0 +1,60 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Range stream tests.
+ */
+class StreamTest extends TestBase {
+    private static void assertStreams(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            final ByteBuffer from,
+            final ByteBuffer to) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>(
+                to == null ? expected.tailMap(from).keySet() : expected.subMap(from, to).keySet());
+        for (final boolean parallel : new boolean[]{false, true}) {
+            try (Stream<Record> records = dao.stream(from, to, parallel)) {
+                assertEquals(keys, records.map(Record::getKey).collect(Collectors.toList()));
+            }
+            try (Stream<Record> records = dao.stream(from, to, parallel)) {
+                final long matching = records.filter(r -> expected.get(r.getKey()).equals(r.getValue())).count();
+                assertEquals(keys.size(), matching);
+            }
+        }
+    }
+
+    @Test
+    void severalTables(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data)) {
+            for (int i = 0; i < 15_000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                expected.put(key, value);
+                if (i % 10 == 0) {
+                    dao.remove(key);
+                    expected.remove(key);
+                }
+            }
+            assertStreams(dao, expected, ByteBuffer.allocate(0), null);
+            final List<ByteBuffer> keys = new ArrayList<>(expected.keySet());
+            assertStreams(dao, expected, keys.get(keys.size() / 4), keys.get(keys.size() / 2));
+            assertStreams(dao, expected, keys.get(keys.size() / 2), keys.get(keys.size() / 2));
+        }
+    }
+}
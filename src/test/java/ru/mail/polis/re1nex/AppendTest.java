@@ -0,0 +1,171 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static java.util.Objects.requireNonNull;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.mail.polis.re1nex.Buffers.random;
+import static ru.mail.polis.re1nex.Buffers.sequential;
+
+/**
+ * Tests for appends of increasing keys to memtables and trivial moves of tables by compaction.
+ */
+class AppendTest {
+    @Test
+    void mixedWrites() throws IOException {
+        final MemTable memTable = new SortedMemTable(KeyOrder.UNSIGNED);
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>(KeyOrder.UNSIGNED);
+        for (int i = 0; i < 5000; i++) {
+            final ByteBuffer key = i % 3 == 0 ? random(8) : sequential(1000L + i);
+            final ByteBuffer value = random(16);
+            memTable.upsert(key, value);
+            expected.put(key, value);
+            if (i % 7 == 0) {
+                final ByteBuffer old = sequential(1000L + i / 2);
+                memTable.upsert(old, value);
+                expected.put(old, value);
+            }
+        }
+        assertEquals(expected.size(), memTable.size());
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), memTable.get(entry.getKey()).getValue().getData());
+        }
+        assertNull(memTable.get(sequential(999L)));
+
+        final ByteBuffer from = sequential(2000L);
+        final Iterator<Cell> cells = memTable.iterator(from, sequential(3000L));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.subMap(from, sequential(3000L)).entrySet()) {
+            final Cell cell = cells.next();
+            assertEquals(entry.getKey(), cell.getKey());
+            assertEquals(entry.getValue(), cell.getValue().getData());
+        }
+        assertFalse(cells.hasNext());
+
+        final CellCursor cursor = memTable.cursor();
+        cursor.seek(ByteBuffer.allocate(0));
+        for (final ByteBuffer key : expected.keySet()) {
+            assertTrue(cursor.isValid());
+            assertEquals(key, cursor.key());
+            cursor.next();
+        }
+        assertFalse(cursor.isValid());
+        assertTrue(memTable.meta().mayContain(expected.firstKey()));
+        assertTrue(memTable.meta().mayContain(expected.lastKey()));
+    }
+
+    @Test
+    void trivialMove(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>(KeyOrder.UNSIGNED);
+        try (NewDAO dao = new NewDAO(data, 4 * 1024, Config.DEFAULT)) {
+            for (long i = 0; i < 2000; i++) {
+                final ByteBuffer value = random(32);
+                dao.upsert(sequential(i), value);
+                expected.put(sequential(i), value);
+            }
+            dao.compact();
+            final String[] sequentialTables = tables(data);
+            assertTrue(sequentialTables.length > 1);
+            dao.compact();
+            assertArrayEquals(sequentialTables, tables(data));
+
+            for (long i = 0; i < 2000; i += 10) {
+                final ByteBuffer value = random(32);
+                dao.upsert(sequential(i), value);
+                expected.put(sequential(i), value);
+            }
+            dao.compact();
+            assertFalse(Arrays.asList(tables(data)).containsAll(Arrays.asList(sequentialTables)));
+            check(dao, expected);
+        }
+        try (NewDAO dao = new NewDAO(data, 4 * 1024, Config.DEFAULT)) {
+            check(dao, expected);
+        }
+    }
+
+    @Test
+    void tombstonesDroppedOnce(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>(KeyOrder.UNSIGNED);
+        try (NewDAO dao = new NewDAO(data, 4 * 1024, Config.DEFAULT)) {
+            for (long i = 0; i < 2000; i++) {
+                final ByteBuffer value = random(32);
+                dao.upsert(sequential(i), value);
+                expected.put(sequential(i), value);
+            }
+            dao.compact();
+            for (long i = 0; i < 2000; i += 10) {
+                dao.remove(sequential(i));
+                expected.remove(sequential(i));
+            }
+            dao.remove(sequential(5000L));
+            dao.compact();
+            final String[] compacted = tables(data);
+            dao.compact();
+            assertArrayEquals(compacted, tables(data));
+            check(dao, expected);
+            assertEquals(expected.size(), dao.count(ByteBuffer.allocate(0), null));
+        }
+        try (NewDAO dao = new NewDAO(data, 4 * 1024, Config.DEFAULT)) {
+            check(dao, expected);
+        }
+    }
+
+    @Test
+    void crashCannotResurrectDropped(@TempDir File data) throws IOException {
+        final File live = new File(data, "live");
+        final File crashed = new File(data, "crashed");
+        assertTrue(live.mkdir());
+        assertTrue(crashed.mkdir());
+        try (NewDAO dao = new NewDAO(live, 1024 * 1024, Config.DEFAULT)) {
+            dao.upsert(sequential(1L), sequential(1L));
+            dao.upsert(sequential(2L), sequential(2L));
+            dao.compact();
+            dao.remove(sequential(1L));
+            //An open iterator keeps the inputs on disk, as a crash before their deletion would
+            final Iterator<Record> pinned = dao.iterator(ByteBuffer.allocate(0));
+            dao.compact();
+            for (final File file : requireNonNull(live.listFiles())) {
+                Files.copy(file.toPath(), new File(crashed, file.getName()).toPath());
+            }
+            assertTrue(pinned.hasNext());
+        }
+        try (NewDAO dao = new NewDAO(crashed, 1024 * 1024, Config.DEFAULT)) {
+            assertEquals(1, dao.count(ByteBuffer.allocate(0), null));
+            assertEquals(sequential(2L), dao.get(sequential(2L)));
+        }
+        assertEquals(0, requireNonNull(crashed.list((dir, name) -> name.endsWith(".obsolete"))).length);
+    }
+
+    private static String[] tables(final File data) {
+        final String[] names = data.list((dir, name) -> name.endsWith(".dat"));
+        Arrays.sort(names);
+        return names;
+    }
+
+    private static void check(
+            final NewDAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        final Iterator<Record> actual = dao.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            final Record record = actual.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(actual.hasNext());
+    }
+}
@@ -0,0 +1,169 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Cursor;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.mail.polis.re1nex.Buffers.random;
+
+/**
+ * Tests for values stored in blob files.
+ */
+class BlobTest {
+    private static final int KEYS = 200;
+    private static final Config CONFIG = Config.builder()
+            .keyOrder(KeyOrder.SIGNED)
+            .blobThreshold(1024)
+            .build();
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("key%04d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(final int i) {
+        return random(i % 2 == 0 ? 4 * 1024 : 100);
+    }
+
+    private static long blobBytes(final File data) {
+        final File[] blobs = data.listFiles((dir, name) -> name.endsWith(BlobStore.SUFFIX));
+        assertNotNull(blobs);
+        long size = 0L;
+        for (final File blob : blobs) {
+            size += blob.length();
+        }
+        return size;
+    }
+
+    private static void assertContents(
+            final NewDAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        final Iterator<Record> iter = dao.iterator(ByteBuffer.allocate(0));
+        try (Cursor cursor = dao.cursor()) {
+            cursor.seek(ByteBuffer.allocate(0));
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+                final Record record = iter.next();
+                assertEquals(entry.getKey(), record.getKey());
+                assertEquals(entry.getValue(), record.getValue());
+                assertEquals(entry.getKey(), cursor.key());
+                assertEquals(entry.getValue(), cursor.value());
+                assertEquals(entry.getValue(), dao.get(entry.getKey()));
+                cursor.next();
+            }
+            assertFalse(iter.hasNext());
+            assertFalse(cursor.isValid());
+        }
+    }
+
+    @Test
+    void compactionKeepsBlobs(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (NewDAO dao = new NewDAO(data, 64 * 1024, CONFIG)) {
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer value = value(i);
+                dao.upsert(key(i), value);
+                expected.put(key(i), value);
+            }
+        }
+        final long written = blobBytes(data);
+        assertEquals(KEYS / 2 * 4 * 1024, written);
+        try (NewDAO dao = new NewDAO(data, 64 * 1024, CONFIG)) {
+            assertContents(dao, expected);
+            dao.compact();
+            //Only references are copied
+            assertEquals(written, blobBytes(data));
+            assertContents(dao, expected);
+        }
+        try (NewDAO dao = new NewDAO(data, 64 * 1024, CONFIG)) {
+            assertContents(dao, expected);
+        }
+    }
+
+    @Test
+    void garbageCollected(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (NewDAO dao = new NewDAO(data, 64 * 1024, CONFIG)) {
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < KEYS; i++) {
+                    final ByteBuffer value = value(i);
+                    dao.upsert(key(i), value);
+                    expected.put(key(i), value);
+                }
+                for (int i = 0; i < KEYS; i += 10) {
+                    dao.remove(key(i));
+                    expected.remove(key(i));
+                }
+                dao.compact();
+                assertContents(dao, expected);
+            }
+            long live = 0L;
+            for (final ByteBuffer value : expected.values()) {
+                if (value.remaining() > 1024) {
+                    live += value.remaining();
+                }
+            }
+            assertTrue(blobBytes(data) <= 2 * live, "Too much garbage in blob files");
+        }
+        try (NewDAO dao = new NewDAO(data, 64 * 1024, CONFIG)) {
+            assertContents(dao, expected);
+        }
+    }
+
+    @Test
+    void getAllDuringCompaction(@TempDir File data) throws Exception {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < KEYS; i += 2) {
+            keys.add(key(i));
+        }
+        try (NewDAO dao = new NewDAO(data, 64 * 1024, CONFIG)) {
+            for (final ByteBuffer key : keys) {
+                dao.upsert(key, value(0));
+            }
+            final AtomicBoolean done = new AtomicBoolean();
+            final ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                final Future<?> reader = executor.submit(() -> {
+                    while (!done.get()) {
+                        final Map<ByteBuffer, ByteBuffer> values = dao.getAll(keys);
+                        assertEquals(keys.size(), values.size());
+                        for (final ByteBuffer value : values.values()) {
+                            assertEquals(4 * 1024, value.remaining());
+                        }
+                    }
+                    return null;
+                });
+                //Overwritten values leave blob files to garbage, compaction deletes them
+                for (int round = 0; round < 100; round++) {
+                    for (final ByteBuffer key : keys) {
+                        dao.upsert(key, value(0));
+                    }
+                    dao.compact();
+                }
+                done.set(true);
+                reader.get();
+            } finally {
+                done.set(true);
+                executor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ru.mail.polis.re1nex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Buffers for keys and values of store tests.
+ */
+final class Buffers {
+    private Buffers() {
+        // Not instantiable
+    }
+
+    /**
+     * Key that sorts as its number for non-negative ones.
+     */
+    @NotNull
+    static ByteBuffer sequential(final long i) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(i).rewind();
+    }
+
+    @NotNull
+    static ByteBuffer random(final int size) {
+        final byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+}
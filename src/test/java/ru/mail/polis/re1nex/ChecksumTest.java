@@ -0,0 +1,142 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static ru.mail.polis.re1nex.Buffers.random;
+import static ru.mail.polis.re1nex.Buffers.sequential;
+
+/**
+ * Tests for detection of corrupted tables.
+ */
+class ChecksumTest {
+    private static final int TRAILER_SIZE = 3 * Integer.BYTES + Long.BYTES;
+
+    private static File fill(
+            final File data,
+            final int records) throws IOException {
+        try (NewDAO dao = new NewDAO(data, 1024 * 1024, Config.DEFAULT)) {
+            for (int i = 0; i < records; i++) {
+                dao.upsert(sequential(i), random(100));
+            }
+        }
+        final File[] tables = data.listFiles((dir, name) -> name.endsWith(".dat"));
+        assertEquals(1, tables.length);
+        return tables[0];
+    }
+
+    private static void corrupt(
+            final File file,
+            final long position,
+            final int value) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            raf.writeInt(value);
+        }
+    }
+
+    private static void flip(
+            final File file,
+            final long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            final int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xFF);
+        }
+    }
+
+    @Test
+    void blocksOfAnySize() throws IOException {
+        final ByteBuffer data = random(Checksums.BLOCK * 3 + 1234);
+        final Checksums.Builder builder = new Checksums.Builder();
+        for (int position = 0; position < data.limit(); ) {
+            final int length = Math.min(data.limit() - position, ThreadLocalRandom.current().nextInt(10_000));
+            builder.update(data.duplicate().position(position).limit(position + length));
+            position += length;
+        }
+        final Checksums checksums = builder.build();
+        assertEquals(4, checksums.blocks());
+        checksums.verify(data, 0L);
+        checksums.verify(data.duplicate().position(Checksums.BLOCK * 2).slice(), Checksums.BLOCK * 2);
+
+        data.put(Checksums.BLOCK * 3 + 7, (byte) (data.get(Checksums.BLOCK * 3 + 7) ^ 1));
+        assertThrows(IOException.class, () -> checksums.verify(data, 0L));
+    }
+
+    @Test
+    void bitFlipFailsScanAndScrub(@TempDir final File data) throws IOException {
+        final File table = fill(data, 5000);
+        flip(table, Checksums.BLOCK + 100);
+        try (NewDAO dao = new NewDAO(data, 1024 * 1024, Config.DEFAULT)) {
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            assertThrows(UncheckedIOException.class, () -> records.forEachRemaining(record -> { }));
+            //Blocks after the broken one are still readable
+            final Iterator<Record> tail = dao.iterator(sequential(4000));
+            int count = 0;
+            while (tail.hasNext()) {
+                tail.next();
+                count++;
+            }
+            assertEquals(1000, count);
+            assertEquals(Collections.singletonList(table), dao.scrub());
+            assertEquals(Collections.singletonList(table), dao.corruptedTables());
+        }
+    }
+
+    @Test
+    void bitFlipFailsPointReads(@TempDir final File data) throws IOException {
+        final File table = fill(data, 1);
+        //Row is keySize|key|timestamp|valueSize|value
+        flip(table, Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES + 10);
+        try (NewDAO dao = new NewDAO(data, 1024 * 1024, Config.DEFAULT)) {
+            assertThrows(IOException.class, () -> dao.get(sequential(0)));
+            assertThrows(IOException.class, () -> dao.getAll(Collections.singletonList(sequential(0))));
+            assertThrows(UncheckedIOException.class,
+                    () -> dao.keys(ByteBuffer.allocate(0), null).forEachRemaining(key -> { }));
+            assertThrows(IOException.class, () -> dao.cursor().seek(ByteBuffer.allocate(0)));
+        }
+    }
+
+    @Test
+    void garbageSizeFailsLookup(@TempDir final File data) throws IOException {
+        final File table = fill(data, 1);
+        corrupt(table, 0L, Integer.MAX_VALUE);
+        try (NewDAO dao = new NewDAO(data, 1024 * 1024, Config.DEFAULT)) {
+            assertThrows(IOException.class, () -> dao.get(sequential(0)));
+        }
+    }
+
+    @Test
+    void corruptedMetaFailsOpen(@TempDir final File data) throws IOException {
+        final File table = fill(data, 100);
+        flip(table, table.length() - TRAILER_SIZE - Integer.BYTES - 1);
+        assertThrows(UncheckedIOException.class, () -> new NewDAO(data, 1024 * 1024, Config.DEFAULT));
+    }
+
+    @Test
+    void backgroundScrubber(@TempDir final File data) throws Exception {
+        final File table = fill(data, 1000);
+        flip(table, 10L);
+        final Config config = Config.builder().scrubIntervalMillis(10L).build();
+        try (NewDAO dao = new NewDAO(data, 1024 * 1024, config)) {
+            final long deadline = System.currentTimeMillis() + 10_000L;
+            while (dao.corruptedTables().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertEquals(Collections.singletonList(table), dao.corruptedTables());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.mail.polis.re1nex.Buffers.sequential;
+
+/**
+ * Tests for conditional writes.
+ */
+class CompareAndSetTest {
+    @Test
+    void conditions(@TempDir final File data) throws IOException {
+        final ByteBuffer key = sequential(1L);
+        try (NewDAO dao = new NewDAO(data, 1024 * 1024, Config.DEFAULT)) {
+            assertTrue(dao.putIfAbsent(key, sequential(1L)));
+            assertFalse(dao.putIfAbsent(key, sequential(2L)));
+            //Value is found in a table
+            dao.compact();
+            assertFalse(dao.putIfAbsent(key, sequential(2L)));
+            assertFalse(dao.compareAndSet(key, sequential(2L), sequential(3L)));
+            assertTrue(dao.compareAndSet(key, sequential(1L), sequential(3L)));
+            assertEquals(sequential(3L), dao.get(key));
+            assertTrue(dao.compareAndSet(key, sequential(3L), null));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            dao.compact();
+            assertFalse(dao.compareAndSet(key, sequential(3L), sequential(4L)));
+            assertTrue(dao.putIfAbsent(key, sequential(4L)));
+        }
+        try (NewDAO dao = new NewDAO(data, 1024 * 1024, Config.DEFAULT)) {
+            assertEquals(sequential(4L), dao.get(key));
+        }
+    }
+
+    @Test
+    void concurrentIncrements(@TempDir final File data) throws Exception {
+        final int threads = 4;
+        final int increments = 300;
+        final ByteBuffer key = sequential(0L);
+        for (final MemTableType type : MemTableType.values()) {
+            final File storage = new File(data, type.name());
+            assertTrue(storage.mkdir());
+            final Config config = Config.builder().memTableType(type).rowCacheBytes(1024 * 1024).build();
+            try (NewDAO dao = new NewDAO(storage, 256, config)) {
+                final ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    final List<Future<?>> futures = new ArrayList<>();
+                    for (int t = 0; t < threads; t++) {
+                        futures.add(executor.submit(() -> {
+                            for (int i = 0; i < increments; i++) {
+                                while (true) {
+                                    ByteBuffer current;
+                                    try {
+                                        current = dao.get(key);
+                                    } catch (NoSuchElementException e) {
+                                        current = null;
+                                    }
+                                    final long next = current == null ? 1L : current.getLong(0) + 1L;
+                                    if (dao.compareAndSet(key, current, sequential(next))) {
+                                        break;
+                                    }
+                                }
+                                //Plain writes of other keys freeze memtables in between
+                                dao.upsert(sequential(i + 1L), sequential(i));
+                            }
+                            return null;
+                        }));
+                    }
+                    for (final Future<?> future : futures) {
+                        future.get();
+                    }
+                } finally {
+                    executor.shutdown();
+                }
+                assertEquals(sequential((long) threads * increments), dao.get(key));
+            }
+        }
+    }
+}
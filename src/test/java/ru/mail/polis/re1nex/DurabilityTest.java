@@ -0,0 +1,49 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that every {@link Durability} policy keeps data across flushes, compaction and reopen.
+ */
+class DurabilityTest {
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(("key" + i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(final int i, final int round) {
+        return ByteBuffer.wrap(("value" + i + "_" + round).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void allPolicies(@TempDir File root) throws IOException {
+        for (final Durability durability : Durability.values()) {
+            final File data = new File(root, durability.name());
+            assertTrue(data.mkdir());
+            final Config config = Config.builder().durability(durability).build();
+            for (int round = 0; round < 3; round++) {
+                try (NewDAO dao = new NewDAO(data, 1024, config)) {
+                    for (int i = 0; i < 200; i++) {
+                        dao.upsert(key(i), value(i, round));
+                    }
+                    if (round == 1) {
+                        dao.compact();
+                    }
+                }
+            }
+            try (NewDAO dao = new NewDAO(data, 1024, config)) {
+                for (int i = 0; i < 200; i++) {
+                    assertEquals(value(i, 2), dao.get(key(i)));
+                }
+            }
+        }
+    }
+}
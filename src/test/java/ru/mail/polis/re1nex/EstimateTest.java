@@ -0,0 +1,54 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for size and count estimation from table samples.
+ */
+class EstimateTest {
+    private static final int COUNT = 20_000;
+    private static final int VALUE_SIZE = 100;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("key%06d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertClose(
+            final long expected,
+            final long actual,
+            final long error) {
+        assertTrue(Math.abs(expected - actual) <= error, "Expected about " + expected + " but was " + actual);
+    }
+
+    @Test
+    void ranges(@TempDir File data) throws IOException {
+        final int rowSize = Integer.BYTES + key(0).remaining() + Long.BYTES + Integer.BYTES + VALUE_SIZE;
+        try (NewDAO dao = new NewDAO(data, 256 * 1024, Config.DEFAULT)) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(key(i), ByteBuffer.allocate(VALUE_SIZE));
+            }
+        }
+        try (NewDAO dao = new NewDAO(data, 256 * 1024, Config.DEFAULT)) {
+            assertEquals(COUNT, dao.estimateCount(ByteBuffer.allocate(0), null));
+            assertEquals((long) COUNT * rowSize, dao.estimateSize(ByteBuffer.allocate(0), null));
+            for (int i = 0; i < 10; i++) {
+                final int from = i * 1000;
+                final int to = from + 5000 + i * 300;
+                final long error = COUNT / 50;
+                assertClose(to - from, dao.estimateCount(key(from), key(to)), error);
+                assertClose((long) (to - from) * rowSize, dao.estimateSize(key(from), key(to)), error * rowSize);
+            }
+            assertEquals(0L, dao.estimateCount(key(COUNT), null));
+            assertEquals(0L, dao.estimateCount(key(10), key(5)));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.mail.polis.re1nex.Buffers.random;
+
+/**
+ * Tests for {@link MemTableType#HASH}.
+ */
+class HashMemTableTest {
+    @Test
+    void sortsOnDemand() throws IOException {
+        final MemTable memTable = MemTable.create(KeyOrder.UNSIGNED, MemTableType.HASH);
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>(KeyOrder.UNSIGNED);
+        assertTrue(memTable.meta().isEmpty());
+        for (int i = 0; i < 3000; i++) {
+            final ByteBuffer key = random(4);
+            final ByteBuffer value = random(16);
+            memTable.upsert(key, value);
+            expected.put(key, value);
+            if (i % 500 == 0) {
+                assertIterates(memTable, expected);
+            }
+        }
+        assertEquals(expected.size(), memTable.size());
+        assertIterates(memTable, expected);
+        final ByteBuffer removed = expected.firstKey();
+        memTable.remove(removed);
+        assertTrue(memTable.get(removed).getValue().isTombstone());
+        assertNull(memTable.get(random(5)));
+        assertTrue(memTable.meta().mayContain(expected.lastKey()));
+    }
+
+    @Test
+    void metaTracksRange() throws IOException {
+        final MemTable memTable = MemTable.create(KeyOrder.UNSIGNED, MemTableType.HASH);
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>(KeyOrder.UNSIGNED);
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = random(4);
+            if (i % 3 == 0) {
+                memTable.remove(key);
+            } else {
+                memTable.upsert(key, random(8));
+            }
+            expected.put(key, key);
+            final TableMeta meta = memTable.meta();
+            assertEquals(expected.firstKey(), meta.getMinKey());
+            assertEquals(expected.lastKey(), meta.getMaxKey());
+        }
+        memTable.close();
+        assertTrue(memTable.meta().isEmpty());
+    }
+
+    private static void assertIterates(
+            final MemTable memTable,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) {
+        final Iterator<Cell> cells = memTable.iterator(expected.firstKey(), null);
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            final Cell cell = cells.next();
+            assertEquals(entry.getKey(), cell.getKey());
+            assertEquals(entry.getValue(), cell.getValue().getData());
+        }
+        assertFalse(cells.hasNext());
+    }
+
+    @Test
+    void store(@TempDir File data) throws IOException {
+        final Config config = Config.builder().memTableType(MemTableType.HASH).build();
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>(KeyOrder.UNSIGNED);
+        try (NewDAO dao = new NewDAO(data, 16 * 1024, config)) {
+            for (int i = 0; i < 3000; i++) {
+                final ByteBuffer key = random(8);
+                final ByteBuffer value = random(32);
+                dao.upsert(key, value);
+                expected.put(key, value);
+                assertEquals(value, dao.get(key));
+                if (i % 4 == 0) {
+                    dao.remove(key);
+                    expected.remove(key);
+                    assertThrows(NoSuchElementException.class, () -> dao.get(key));
+                }
+            }
+            check(dao, expected);
+        }
+        try (NewDAO dao = new NewDAO(data, 16 * 1024, config)) {
+            check(dao, expected);
+        }
+    }
+
+    private static void check(
+            final NewDAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        final Iterator<Record> actual = dao.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            final Record record = actual.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(actual.hasNext());
+    }
+}
@@ -0,0 +1,134 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.mail.polis.re1nex.Buffers.random;
+import static ru.mail.polis.re1nex.Buffers.sequential;
+
+/**
+ * Tests for tables built by external sort and ingested into the store.
+ */
+class IngestTest {
+    private static void assertContents(
+            final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            final NewDAO dao) throws IOException {
+        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertTrue(records.hasNext());
+            final Record record = records.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    private static File dir(
+            final File parent,
+            final String name) throws IOException {
+        return Files.createDirectories(new File(parent, name).toPath()).toFile();
+    }
+
+    @Test
+    void sortedInputKeepsRuns(@TempDir final File data) throws IOException {
+        final File storage = dir(data, "storage");
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>(KeyOrder.UNSIGNED);
+        try (NewDAO dao = new NewDAO(storage, 64 * 1024, Config.DEFAULT)) {
+            for (int i = 0; i < 1000; i += 10) {
+                dao.upsert(sequential(i), random(8));
+            }
+            final List<File> files;
+            try (TableBuilder builder = new TableBuilder(dir(data, "bulk"), Config.DEFAULT, 16 * 1024)) {
+                for (int i = 0; i < 5000; i++) {
+                    final ByteBuffer value = random(32);
+                    builder.upsert(sequential(i), value);
+                    expected.put(sequential(i), value);
+                }
+                files = builder.finish();
+            }
+            assertTrue(files.size() > 1);
+            dao.ingest(files);
+            for (final File file : files) {
+                assertFalse(file.exists());
+            }
+            assertContents(expected, dao);
+            dao.compact();
+            assertContents(expected, dao);
+        }
+        try (NewDAO dao = new NewDAO(storage, 64 * 1024, Config.DEFAULT)) {
+            assertContents(expected, dao);
+        }
+    }
+
+    @Test
+    void unsortedInputIsMerged(@TempDir final File data) throws IOException {
+        final File bulk = dir(data, "bulk");
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>(KeyOrder.UNSIGNED);
+        try (NewDAO dao = new NewDAO(dir(data, "storage"), 64 * 1024, Config.DEFAULT)) {
+            final ByteBuffer removed = sequential(-1L);
+            dao.upsert(removed, random(8));
+            final List<File> files;
+            try (TableBuilder builder = new TableBuilder(bulk, Config.DEFAULT, 8 * 1024)) {
+                for (int i = 0; i < 3000; i++) {
+                    final ByteBuffer key = sequential(ThreadLocalRandom.current().nextInt(1000));
+                    final ByteBuffer value = random(16);
+                    builder.upsert(key, value);
+                    expected.put(key, value);
+                }
+                builder.remove(removed);
+                files = builder.finish();
+            }
+            final String[] left = bulk.list();
+            assertEquals(files.size(), left == null ? 0 : left.length);
+            dao.ingest(files);
+            assertContents(expected, dao);
+        }
+    }
+
+    @Test
+    void ingestInvalidatesRowCache(@TempDir final File data) throws IOException {
+        final Config config = Config.builder().rowCacheBytes(1024 * 1024).build();
+        try (NewDAO dao = new NewDAO(dir(data, "storage"), 64 * 1024, config)) {
+            final ByteBuffer key = sequential(42L);
+            dao.upsert(key, sequential(1L));
+            assertEquals(sequential(1L), dao.get(key));
+            final List<File> files;
+            try (TableBuilder builder = new TableBuilder(dir(data, "bulk"), config, 1024)) {
+                builder.upsert(key, sequential(2L));
+                files = builder.finish();
+            }
+            dao.ingest(files);
+            assertEquals(sequential(2L), dao.get(key));
+        }
+    }
+
+    @Test
+    void rejectsOtherKeyOrder(@TempDir final File data) throws IOException {
+        try (NewDAO dao = new NewDAO(dir(data, "storage"), 64 * 1024, Config.DEFAULT)) {
+            final List<File> files;
+            final Config signed = Config.builder().keyOrder(KeyOrder.SIGNED).build();
+            try (TableBuilder builder = new TableBuilder(dir(data, "bulk"), signed, 1024)) {
+                builder.upsert(sequential(1L), sequential(1L));
+                files = builder.finish();
+            }
+            assertThrows(IllegalArgumentException.class, () -> dao.ingest(files));
+            assertTrue(files.get(0).exists());
+        }
+    }
+}
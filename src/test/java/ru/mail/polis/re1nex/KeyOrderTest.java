@@ -0,0 +1,92 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link KeyOrder} and key order migration.
+ */
+class KeyOrderTest {
+    private static ByteBuffer randomKey() {
+        final byte[] bytes = new byte[ThreadLocalRandom.current().nextInt(1, 24)];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static int unsignedCompare(final ByteBuffer a, final ByteBuffer b) {
+        for (int i = 0; i < Math.min(a.remaining(), b.remaining()); i++) {
+            final int cmp = Integer.compare(a.get(a.position() + i) & 0xFF, b.get(b.position() + i) & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(a.remaining(), b.remaining());
+    }
+
+    @Test
+    void compare() {
+        for (int i = 0; i < 10_000; i++) {
+            final ByteBuffer a = randomKey();
+            final ByteBuffer b = i % 10 == 0 ? a.duplicate() : randomKey();
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(KeyOrder.SIGNED.compare(a, b)));
+            assertEquals(Integer.signum(unsignedCompare(a, b)), Integer.signum(KeyOrder.UNSIGNED.compare(a, b)));
+        }
+        final ByteBuffer low = ByteBuffer.wrap(new byte[]{0x7F});
+        final ByteBuffer high = ByteBuffer.wrap(new byte[]{(byte) 0x80});
+        assertTrue(KeyOrder.UNSIGNED.compare(low, high) < 0);
+        assertTrue(KeyOrder.SIGNED.compare(low, high) > 0);
+    }
+
+    @Test
+    void migration(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        final Config signed = Config.builder().keyOrder(KeyOrder.SIGNED).build();
+        for (int round = 0; round < 3; round++) {
+            try (NewDAO dao = new NewDAO(data, 1024, signed)) {
+                for (int i = 0; i < 100; i++) {
+                    final ByteBuffer key = randomKey();
+                    keys.add(key);
+                    dao.upsert(key, key);
+                }
+            }
+        }
+
+        final Config unsigned = Config.builder().keyOrder(KeyOrder.UNSIGNED).build();
+        assertThrows(IllegalStateException.class, () -> new NewDAO(data, 1024, unsigned));
+
+        final Config migrate = Config.builder().keyOrder(KeyOrder.UNSIGNED).migrateKeyOrder(true).build();
+        try (NewDAO dao = new NewDAO(data, 1024, migrate)) {
+            for (final ByteBuffer key : keys) {
+                assertEquals(key, dao.get(key));
+            }
+            keys.sort(KeyOrder.UNSIGNED);
+            final Iterator<Record> iter = dao.iterator(ByteBuffer.allocate(0));
+            ByteBuffer previous = null;
+            for (final ByteBuffer key : keys) {
+                if (key.equals(previous)) {
+                    continue;
+                }
+                assertEquals(key, iter.next().getKey());
+                previous = key;
+            }
+            assertFalse(iter.hasNext());
+        }
+        try (NewDAO dao = new NewDAO(data, 1024, unsigned)) {
+            assertEquals(keys.get(0), dao.get(keys.get(0)));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.mail.polis.re1nex.Buffers.sequential;
+
+/**
+ * Tests for merge operands and compaction filter.
+ */
+class MergeOperatorTest {
+    private static final MergeOperator SUM = (key, existing, operand) -> sequential(
+            (existing == null ? 0L : existing.getLong(existing.position())) + operand.getLong(operand.position()));
+
+    private static Config counters(final MemTableType type) {
+        return Config.builder().mergeOperator(SUM).memTableType(type).build();
+    }
+
+    @Test
+    void concurrentIncrements(@TempDir final File data) throws Exception {
+        final int keys = 10;
+        final int threads = 4;
+        final int increments = 500;
+        for (final MemTableType type : MemTableType.values()) {
+            final File storage = new File(data, type.name());
+            assertTrue(storage.mkdir());
+            try (NewDAO dao = new NewDAO(storage, 1024, counters(type))) {
+                final ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    final List<Future<?>> futures = new ArrayList<>();
+                    for (int t = 0; t < threads; t++) {
+                        futures.add(executor.submit(() -> {
+                            for (int i = 0; i < increments; i++) {
+                                dao.merge(sequential(i % keys), sequential(1L));
+                            }
+                            return null;
+                        }));
+                    }
+                    for (final Future<?> future : futures) {
+                        future.get();
+                    }
+                } finally {
+                    executor.shutdown();
+                }
+                final long expected = (long) threads * increments / keys;
+                for (int i = 0; i < keys; i++) {
+                    assertEquals(sequential(expected), dao.get(sequential(i)));
+                }
+                final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+                for (int i = 0; i < keys; i++) {
+                    final Record record = records.next();
+                    assertEquals(sequential(i), record.getKey());
+                    assertEquals(sequential(expected), record.getValue());
+                }
+                assertFalse(records.hasNext());
+                dao.compact();
+                assertEquals(sequential(expected), dao.get(sequential(0)));
+            }
+            try (NewDAO dao = new NewDAO(storage, 1024, counters(type))) {
+                final Map<ByteBuffer, ByteBuffer> all = dao.getAll(Arrays.asList(sequential(1), sequential(2)));
+                assertEquals(sequential((long) threads * increments / keys), all.get(sequential(1)));
+                assertEquals(keys, dao.count(ByteBuffer.allocate(0), null));
+            }
+        }
+    }
+
+    @Test
+    void operandsOverValuesAndTombstones(@TempDir final File data) throws Exception {
+        try (NewDAO dao = new NewDAO(data, 1024 * 1024, counters(MemTableType.SORTED))) {
+            final ByteBuffer value = sequential(1L);
+            final ByteBuffer removed = sequential(2L);
+            dao.upsert(value, sequential(10L));
+            dao.upsert(removed, sequential(10L));
+            dao.remove(removed);
+            dao.compact();
+            dao.merge(value, sequential(5L));
+            dao.merge(removed, sequential(5L));
+            assertEquals(sequential(15L), dao.get(value));
+            assertEquals(sequential(5L), dao.get(removed));
+            assertEquals(sequential(15L), dao.getAsync(value).get());
+            //Operands over a value in the same memtable are combined on write
+            dao.upsert(value, sequential(100L));
+            dao.merge(value, sequential(1L));
+            dao.compact();
+            dao.merge(value, sequential(1L));
+            assertEquals(sequential(102L), dao.get(value));
+            dao.remove(value);
+            assertThrows(NoSuchElementException.class, () -> dao.get(value));
+        }
+    }
+
+    @Test
+    void filterDropsAndRewrites(@TempDir final File data) throws IOException {
+        final Config config = Config.builder()
+                .mergeOperator(SUM)
+                .compactionFilter((key, value) -> {
+                    final long counter = value.getLong(value.position());
+                    if (counter == 0L) {
+                        return null;
+                    }
+                    return counter > 100L ? sequential(100L) : value;
+                })
+                .build();
+        try (NewDAO dao = new NewDAO(data, 1024 * 1024, config)) {
+            dao.upsert(sequential(0L), sequential(0L));
+            dao.upsert(sequential(1L), sequential(50L));
+            dao.merge(sequential(2L), sequential(500L));
+            dao.compact();
+            assertThrows(NoSuchElementException.class, () -> dao.get(sequential(0L)));
+            assertEquals(sequential(50L), dao.get(sequential(1L)));
+            assertEquals(sequential(100L), dao.get(sequential(2L)));
+            //Fresh writes are not filtered until compacted
+            dao.upsert(sequential(3L), sequential(0L));
+            assertEquals(sequential(0L), dao.get(sequential(3L)));
+            assertEquals(3, dao.count(ByteBuffer.allocate(0), null));
+        }
+    }
+
+    @Test
+    void filterInvalidatesRowCache(@TempDir final File data) throws IOException {
+        final Config config = Config.builder()
+                .rowCacheBytes(1024 * 1024)
+                .compactionFilter((key, value) -> null)
+                .build();
+        try (NewDAO dao = new NewDAO(data, 1024 * 1024, config)) {
+            final ByteBuffer key = sequential(1L);
+            dao.upsert(key, sequential(42L));
+            assertEquals(sequential(42L), dao.get(key));
+            dao.compact();
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+        }
+    }
+
+    @Test
+    void mergeNeedsOperator(@TempDir final File data) throws IOException {
+        try (NewDAO dao = new NewDAO(data, 1024 * 1024, Config.DEFAULT)) {
+            assertThrows(IllegalStateException.class, () -> dao.merge(sequential(1L), sequential(1L)));
+        }
+    }
+}
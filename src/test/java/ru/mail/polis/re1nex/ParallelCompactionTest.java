@@ -0,0 +1,59 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.mail.polis.re1nex.Buffers.random;
+
+/**
+ * Tests for compaction split into key range partitions.
+ */
+class ParallelCompactionTest {
+    @Test
+    void partitions(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .keyOrder(KeyOrder.SIGNED)
+                .compactionThreads(4)
+                .build();
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (NewDAO dao = new NewDAO(data, 16 * 1024, config)) {
+            for (int i = 0; i < 2000; i++) {
+                final ByteBuffer key = random(16);
+                final ByteBuffer value = random(64);
+                dao.upsert(key, value);
+                expected.put(key, value);
+                if (i % 3 == 0) {
+                    dao.remove(key);
+                    expected.remove(key);
+                }
+            }
+            dao.compact();
+
+            final Iterator<Record> actual = dao.iterator(ByteBuffer.allocate(0));
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+                final Record record = actual.next();
+                assertEquals(entry.getKey(), record.getKey());
+                assertEquals(entry.getValue(), record.getValue());
+            }
+            assertFalse(actual.hasNext());
+        }
+
+        final File[] tables = data.listFiles((dir, name) -> name.endsWith(".dat"));
+        assertNotNull(tables);
+        assertTrue(tables.length > 1);
+        assertEquals(0, data.listFiles((dir, name) -> name.endsWith(".tmp")).length);
+    }
+}
@@ -0,0 +1,48 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link ReadAhead}.
+ */
+class ReadAheadTest {
+    @Test
+    void rowsAcrossChunks(@TempDir File data) throws IOException {
+        final List<ByteBuffer> values = new ArrayList<>();
+        final ByteBuffer file = ByteBuffer.allocate(16 * 1024 * 1024);
+        file.putLong(-1L);
+        for (int i = 0; file.remaining() > ReadAhead.MAX_CHUNK + 1024; i++) {
+            final int size = i == 100 ? ReadAhead.MAX_CHUNK + 7 : ThreadLocalRandom.current().nextInt(2000);
+            final byte[] bytes = new byte[size];
+            ThreadLocalRandom.current().nextBytes(bytes);
+            values.add(ByteBuffer.wrap(bytes));
+            file.putInt(size).putLong(i).put(bytes);
+        }
+        final File path = new File(data, "rows");
+        Files.write(path.toPath(), file.flip().array());
+
+        try (FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ)) {
+            final ReadAhead rows = new ReadAhead(channel, Long.BYTES, file.limit());
+            for (int i = 0; i < values.size(); i++) {
+                final int size = rows.getInt();
+                assertEquals(i, rows.getLong());
+                assertEquals(values.get(i), rows.get(size));
+            }
+            assertThrows(IOException.class, rows::getInt);
+        }
+    }
+}
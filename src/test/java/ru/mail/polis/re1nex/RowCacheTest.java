@@ -0,0 +1,90 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Unit tests for {@link RowCache} policy.
+ */
+class RowCacheTest {
+    private static ByteBuffer buffer(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void coherence() {
+        final RowCache cache = new RowCache(1024 * 1024);
+        final ByteBuffer key = buffer("key");
+        assertNull(cache.get(key));
+
+        cache.put(key, buffer("value"), cache.stamp());
+        assertEquals(buffer("value"), cache.get(key));
+
+        cache.update(key, buffer("other"));
+        assertEquals(buffer("other"), cache.get(key));
+
+        cache.update(key, null);
+        assertSame(RowCache.ABSENT, cache.get(key));
+
+        cache.invalidate(key);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void staleRead() {
+        final RowCache cache = new RowCache(1024 * 1024);
+        final ByteBuffer key = buffer("key");
+        final long stamp = cache.stamp();
+        cache.update(key, buffer("fresh"));
+        cache.put(key, buffer("stale"), stamp);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void rejectedCandidateEvictsNothing() {
+        //Main segment of 9900 bytes holds nine rows of 1000 bytes
+        final RowCache cache = new RowCache(10_000);
+        final ByteBuffer hot = buffer("k1");
+        for (int i = 0; i < 5; i++) {
+            cache.get(hot);
+        }
+        for (int i = 0; i < 9; i++) {
+            cache.put(buffer("k" + i), ByteBuffer.allocate(902), cache.stamp());
+        }
+        //Makes room only by displacing both the cold oldest row and the hot one after it
+        final ByteBuffer big = buffer("big");
+        cache.get(big);
+        cache.get(big);
+        cache.put(big, ByteBuffer.allocate(1997), cache.stamp());
+        assertNull(cache.get(big));
+        assertNotNull(cache.get(buffer("k0")));
+        assertNotNull(cache.get(hot));
+    }
+
+    @Test
+    void frequentSurvivesScan() {
+        final RowCache cache = new RowCache(64 * 1024);
+        final ByteBuffer hot = buffer("hot");
+        for (int i = 0; i < 10; i++) {
+            cache.get(hot);
+        }
+        cache.put(hot, ByteBuffer.allocate(256), cache.stamp());
+
+        for (int i = 0; i < 10_000; i++) {
+            if (i % 100 == 0) {
+                assertNotNull(cache.get(hot));
+            }
+            final ByteBuffer cold = buffer("cold" + i);
+            cache.get(cold);
+            cache.put(cold, ByteBuffer.allocate(256), cache.stamp());
+        }
+        assertNotNull(cache.get(hot));
+    }
+}
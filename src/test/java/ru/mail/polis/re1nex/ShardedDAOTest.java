@@ -0,0 +1,139 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.DAO;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static ru.mail.polis.re1nex.Buffers.random;
+
+/**
+ * Tests for {@link ShardedDAO}.
+ */
+class ShardedDAOTest {
+    private static void fill(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws Exception {
+        final List<Thread> writers = new ArrayList<>();
+        final List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            writers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        final ByteBuffer key = random(8);
+                        final ByteBuffer value = random(32);
+                        dao.upsert(key, value);
+                        expected.put(key, value);
+                        if (i % 5 == 0) {
+                            dao.remove(key);
+                            expected.remove(key);
+                        }
+                    }
+                } catch (IOException e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        for (final Thread writer : writers) {
+            writer.start();
+        }
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(List.of(), failures);
+    }
+
+    private static void check(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        final Iterator<Record> actual = dao.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            final Record record = actual.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(actual.hasNext());
+        final ByteBuffer from = random(8);
+        final ByteBuffer to = random(8);
+        final ByteBuffer low = KeyOrder.UNSIGNED.compare(from, to) < 0 ? from : to;
+        final ByteBuffer high = low == from ? to : from;
+        final NavigableMap<ByteBuffer, ByteBuffer> sub = expected.subMap(low, true, high, false);
+        assertEquals(sub.size(), dao.count(low, high));
+        final Iterator<Record> range = dao.range(low, high);
+        for (final ByteBuffer key : sub.keySet()) {
+            assertEquals(key, range.next().getKey());
+        }
+        assertFalse(range.hasNext());
+        assertEquals(expected.size(), dao.getAll(expected.keySet()).size());
+        try (Stream<Record> records = dao.stream(low, high, true)) {
+            assertEquals(new ArrayList<>(sub.keySet()), records.map(Record::getKey).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void hashShards(@TempDir File data) throws Exception {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new ConcurrentSkipListMap<>(KeyOrder.UNSIGNED);
+        try (DAO dao = new ShardedDAO(data, 8 * 1024, Config.DEFAULT, 4)) {
+            fill(dao, expected);
+            check(dao, expected);
+            dao.compact();
+            check(dao, expected);
+        }
+        try (DAO dao = new ShardedDAO(data, 8 * 1024, Config.DEFAULT, 4)) {
+            check(dao, expected);
+        }
+        assertThrows(IllegalStateException.class, () -> new ShardedDAO(data, 8 * 1024, Config.DEFAULT, 3));
+    }
+
+    @Test
+    void rangeShards(@TempDir File data) throws Exception {
+        final List<ByteBuffer> splitKeys = List.of(
+                ByteBuffer.wrap(new byte[]{0x40}),
+                ByteBuffer.wrap(new byte[]{(byte) 0x80}),
+                ByteBuffer.wrap(new byte[]{(byte) 0xC0}));
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new ConcurrentSkipListMap<>(KeyOrder.UNSIGNED);
+        try (DAO dao = new ShardedDAO(data, 8 * 1024, Config.DEFAULT, splitKeys)) {
+            fill(dao, expected);
+            check(dao, expected);
+        }
+        try (DAO dao = new ShardedDAO(data, 8 * 1024, Config.DEFAULT, splitKeys)) {
+            check(dao, expected);
+            dao.upsert(splitKeys.get(1), splitKeys.get(1));
+            assertEquals(splitKeys.get(1), dao.range(splitKeys.get(1), null).next().getKey());
+        }
+        assertThrows(IllegalStateException.class, () -> new ShardedDAO(data, 8 * 1024, Config.DEFAULT, 4));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ShardedDAO(data, 8 * 1024, Config.DEFAULT, List.of(splitKeys.get(1), splitKeys.get(0))));
+    }
+
+    @Test
+    void budgetsSplitBetweenShards() {
+        final Config config = Config.builder()
+                .rowCacheBytes(1024 * 1024)
+                .compactionThreads(8)
+                .ioThreads(3)
+                .build()
+                .forShard(4);
+        assertEquals(256 * 1024, config.getRowCacheBytes());
+        assertEquals(2, config.getCompactionThreads());
+        assertEquals(1, config.getIoThreads());
+        assertEquals(KeyOrder.UNSIGNED, config.getKeyOrder());
+    }
+}
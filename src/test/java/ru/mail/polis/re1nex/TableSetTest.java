@@ -0,0 +1,76 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Cursor;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that readers pin the version of tables they were opened on.
+ */
+class TableSetTest {
+    private static final int COUNT = 1000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("key%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(final int i, final int round) {
+        return ByteBuffer.wrap(("value" + i + "_" + round).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int tables(final File data) {
+        final File[] files = data.listFiles((dir, name) -> name.endsWith(".dat"));
+        assertNotNull(files);
+        return files.length;
+    }
+
+    @Test
+    void iteratorSurvivesCompaction(@TempDir File data) throws IOException {
+        try (NewDAO dao = new NewDAO(data, 4 * 1024, Config.builder().compactionThreads(1).build())) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(key(i), value(i, 0));
+            }
+            //Counted first, as a background flush may add a table the iterator does not pin
+            final int before = tables(data);
+            assertTrue(before > 1);
+            final Iterator<Record> iter = dao.iterator(ByteBuffer.allocate(0));
+            final Cursor cursor = dao.cursor();
+            cursor.seek(ByteBuffer.allocate(0));
+
+            dao.compact();
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(key(i), value(i, 1));
+            }
+            dao.compact();
+            //Inputs are still read
+            assertTrue(tables(data) > before);
+
+            for (int i = 0; i < COUNT; i++) {
+                final Record record = iter.next();
+                assertEquals(key(i), record.getKey());
+                assertEquals(value(i, 0), record.getValue());
+                assertTrue(cursor.isValid());
+                assertEquals(key(i), cursor.key());
+                assertEquals(value(i, 0), cursor.value());
+                cursor.next();
+            }
+            assertFalse(iter.hasNext());
+            assertFalse(cursor.isValid());
+            cursor.close();
+            assertEquals(1, tables(data));
+            assertEquals(value(0, 1), dao.get(key(0)));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ru.mail.polis.re1nex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ru.mail.polis.re1nex.Buffers.random;
+
+/**
+ * Tests for background flush, compaction trigger and write stall.
+ */
+class WriteStallTest {
+    private static void check(
+            final NewDAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        final Iterator<Record> actual = dao.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            final Record record = actual.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    @Test
+    void boundedTables(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .keyOrder(KeyOrder.SIGNED)
+                .compactionTrigger(4)
+                .writeStall(6, 8)
+                .maxPendingFlushes(1)
+                .build();
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (NewDAO dao = new NewDAO(data, 4 * 1024, config)) {
+            for (int i = 0; i < 5000; i++) {
+                final ByteBuffer key = random(8);
+                final ByteBuffer value = random(32);
+                dao.upsert(key, value);
+                expected.put(key, value);
+                if (i % 5 == 0) {
+                    dao.remove(key);
+                    expected.remove(key);
+                }
+                final WriteStats stats = dao.writeStats();
+                assertTrue(stats.getTables() < 8);
+                assertTrue(stats.getPendingFlushes() <= 1);
+            }
+            check(dao, expected);
+
+            final WriteStats stats = dao.writeStats();
+            assertTrue(stats.getDelayedWrites() >= 0L);
+            assertTrue(stats.getStallNanos() >= 0L);
+        }
+
+        final File[] tables = data.listFiles((dir, name) -> name.endsWith(".dat"));
+        assertTrue(tables.length < 8);
+        try (NewDAO dao = new NewDAO(data, 4 * 1024, config)) {
+            check(dao, expected);
+        }
+    }
+
+    @Test
+    void defaultsDoNotStall(@TempDir File data) throws IOException {
+        try (NewDAO dao = new NewDAO(data, 1024, Config.DEFAULT)) {
+            for (int i = 0; i < 1000; i++) {
+                dao.upsert(random(8), random(32));
+            }
+            final WriteStats stats = dao.writeStats();
+            assertNotEquals(WriteStats.State.SLOWDOWN, stats.getState());
+            assertEquals(0L, stats.getDelayedWrites());
+        }
+    }
+
+    @Test
+    void badStallConfig() {
+        assertThrows(IllegalArgumentException.class, () -> Config.builder().writeStall(4, 2));
+        assertThrows(IllegalArgumentException.class, () -> Config.builder().writeStall(4, 8).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> Config.builder().compactionTrigger(8).writeStall(4, 8).build());
+        assertThrows(IllegalArgumentException.class, () -> Config.builder().compactionTrigger(1));
+    }
+}